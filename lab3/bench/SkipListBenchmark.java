@@ -0,0 +1,339 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import common.NormalPopulation;
+import common.Population;
+import common.UniformPopulation;
+
+/* Throughput benchmark of the skip list variants, without the single
+ * shot and JIT warm-up of the LockFreeSkipListTest harnesses.
+ *
+ * Every combination of the parameters below is one trial. A trial runs
+ * warmup + iterations timed iterations; each iteration fills a fresh
+ * set with max keys from the prep population, as the harnesses do,
+ * then lets every thread run its operation mix for time ms. Only the
+ * measured iterations are reported, as mean ops/ms with the standard
+ * deviation and a 99% confidence interval.
+ *
+ * A fresh set per iteration keeps the record books of mutex, local and
+ * mpsc from growing over a trial. All trials share one JVM, so run a
+ * single impl per invocation when profile pollution matters.
+ */
+public class SkipListBenchmark {
+
+    /* Operations generated per thread, cycled through while the
+     * iteration lasts
+     */
+    static final int WORKLOAD = 1 << 16;
+
+    static final int SEED = 123;
+
+    /* Student's t at 99.5% for 1..30 degrees of freedom */
+    static final double[] T_995 = {
+            63.657, 9.925, 5.841, 4.604, 4.032, 3.707, 3.499, 3.355, 3.250, 3.169,
+            3.106, 3.055, 3.012, 2.977, 2.947, 2.921, 2.898, 2.878, 2.861, 2.845,
+            2.831, 2.819, 2.807, 2.797, 2.787, 2.779, 2.771, 2.763, 2.756, 2.750,
+    };
+
+    static class Params {
+        String[] impls = Target.IMPLS;
+        int[] threads = { 1 };
+        String[] ratios = { "0.8:0.1:0.1" };
+        int[] maxes = { 100000 };
+        String[] populations = { "uniform" };
+        int[] batches = { 1 };
+        int warmup = 5;
+        int iterations = 10;
+        int time = 1000;
+
+        Params(String[] args) {
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0)
+                    usage("expected name=value: " + arg);
+                String name = arg.substring(0, eq);
+                String[] values = arg.substring(eq + 1).split(",");
+                switch (name) {
+                case "impl":
+                    impls = values;
+                    break;
+                case "threads":
+                    threads = ints(values);
+                    break;
+                case "ratio":
+                    ratios = values;
+                    break;
+                case "max":
+                    maxes = ints(values);
+                    break;
+                case "population":
+                    populations = values;
+                    break;
+                case "batch":
+                    batches = ints(values);
+                    break;
+                case "warmup":
+                    warmup = Integer.parseInt(values[0]);
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(values[0]);
+                    break;
+                case "time":
+                    time = Integer.parseInt(values[0]);
+                    break;
+                default:
+                    usage("unknown parameter: " + name);
+                }
+            }
+            for (String ratio : ratios)
+                probs(ratio);
+            if (iterations < 1)
+                usage("iterations must be positive");
+            for (int batch : batches)
+                if (batch < 1)
+                    usage("batch must be positive");
+        }
+
+        static int[] ints(String[] values) {
+            int[] result = new int[values.length];
+            for (int i = 0; i < values.length; i += 1)
+                result[i] = Integer.parseInt(values[i]);
+            return result;
+        }
+    }
+
+    static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println();
+        System.err.println("CMD: java bench.SkipListBenchmark [{name}={value}[,{value}...]]...");
+        System.err.println();
+        System.err.println("WHERE:\t impl               any of " + String.join(", ", Target.IMPLS) + " (default all)");
+        System.err.println("      \t threads            thread counts (default 1)");
+        System.err.println("      \t ratio              contains:add:remove, summing to 1.0 (default 0.8:0.1:0.1)");
+        System.err.println("      \t max                key range [0, max), also the prep size (default 100000)");
+        System.err.println("      \t population         uniform or normal (default uniform)");
+        System.err.println("      \t batch              longest run of contains issued as one containsAll (default 1)");
+        System.err.println("      \t warmup             warm-up iterations per trial (default 5)");
+        System.err.println("      \t iterations         measured iterations per trial (default 10)");
+        System.err.println("      \t time               ms per iteration (default 1000)");
+        System.exit(-1);
+    }
+
+    /* Cumulative probabilities, as in Config.probs */
+    static double[] probs(String ratio) {
+        String[] parts = ratio.split(":");
+        if (parts.length != 3)
+            usage("ratio needs three parts: " + ratio);
+        double[] probs = new double[3];
+        probs[0] = Double.parseDouble(parts[0]);
+        probs[1] = Double.parseDouble(parts[1]) + probs[0];
+        probs[2] = Double.parseDouble(parts[2]) + probs[1];
+        if (Math.abs(probs[2] - 1.0) > 1e-9)
+            usage("ratio must sum up to 1.0: " + ratio);
+        return probs;
+    }
+
+    static Population population(String name, int seed, int max) {
+        if (name.equalsIgnoreCase("uniform"))
+            return new UniformPopulation(seed, 0, max);
+        if (name.equalsIgnoreCase("normal"))
+            return new NormalPopulation(seed, 0, max, 0f, 1f);
+        usage("unknown population: " + name);
+        return null;
+    }
+
+    /* Operations and boxed keys of one thread */
+    static class Workload {
+        final byte[] ops = new byte[WORKLOAD];
+        final Integer[] keys = new Integer[WORKLOAD];
+
+        /* With batch > 1, the keys of the run of up to batch contains
+         * starting at each index, unboxed and boxed
+         */
+        final int[][] runs;
+        final Integer[][] boxedRuns;
+
+        Workload(double[] probs, Population dist, Random rng, int batch) {
+            for (int i = 0; i < WORKLOAD; i += 1) {
+                double sample = rng.nextDouble();
+                ops[i] = (byte) (sample < probs[0] ? 0 : sample < probs[1] ? 1 : 2);
+                keys[i] = dist.getSample();
+            }
+            if (batch == 1) {
+                runs = null;
+                boxedRuns = null;
+                return;
+            }
+            runs = new int[WORKLOAD][];
+            boxedRuns = new Integer[WORKLOAD][];
+            for (int i = 0; i < WORKLOAD; ) {
+                int j = i;
+                while (j < WORKLOAD && j - i < batch && ops[j] == 0)
+                    j += 1;
+                if (j > i) {
+                    boxedRuns[i] = Arrays.copyOfRange(keys, i, j);
+                    runs[i] = new int[j - i];
+                    for (int k = i; k < j; k += 1)
+                        runs[i][k - i] = keys[k];
+                }
+                i = Math.max(j, i + 1);
+            }
+        }
+    }
+
+    static class Worker extends Thread {
+        final Target target;
+        final Workload workload;
+        final CyclicBarrier barrier;
+        volatile boolean stop = false;
+        long ops;
+        long sink;
+
+        Worker(Target target, Workload workload, CyclicBarrier barrier) {
+            this.target = target;
+            this.workload = workload;
+            this.barrier = barrier;
+        }
+
+        public void run() {
+            try {
+                barrier.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                return;
+            }
+            byte[] ops = workload.ops;
+            Integer[] keys = workload.keys;
+            int[][] runs = workload.runs;
+            boolean[] found = runs == null ? null : new boolean[WORKLOAD];
+            long done = 0;
+            long hits = 0;
+            int i = 0;
+            while (!stop) {
+                if (runs != null && runs[i] != null) {
+                    int[] run = runs[i];
+                    hits += target.containsAll(run, workload.boxedRuns[i], found);
+                    done += run.length;
+                    i = (i + run.length) & (WORKLOAD - 1);
+                    continue;
+                }
+                boolean hit;
+                if (ops[i] == 0)
+                    hit = target.contains(keys[i]);
+                else if (ops[i] == 1)
+                    hit = target.add(keys[i]);
+                else
+                    hit = target.remove(keys[i]);
+                if (hit)
+                    hits += 1;
+                done += 1;
+                i = (i + 1) & (WORKLOAD - 1);
+            }
+            this.ops = done;
+            this.sink = hits;
+        }
+    }
+
+    /* Runs one iteration, returns ops/ms over all threads */
+    static double iteration(String impl, int max, Population prep, Workload[] workloads, int time)
+            throws InterruptedException {
+        Target target = Target.create(impl);
+        try {
+            for (int i = 0; i < max; i += 1)
+                target.add(prep.getSample());
+
+            CyclicBarrier barrier = new CyclicBarrier(workloads.length + 1);
+            Worker[] workers = new Worker[workloads.length];
+            for (int t = 0; t < workers.length; t += 1) {
+                workers[t] = new Worker(target, workloads[t], barrier);
+                workers[t].start();
+            }
+            try {
+                barrier.await();
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+            long start = System.nanoTime();
+            Thread.sleep(time);
+            for (Worker worker : workers)
+                worker.stop = true;
+            long elapsed = System.nanoTime() - start;
+
+            long ops = 0;
+            for (Worker worker : workers) {
+                worker.join();
+                ops += worker.ops;
+            }
+            return ops * 1e6 / elapsed;
+        } finally {
+            target.close();
+        }
+    }
+
+    static String trial(Params params, String impl, int nthreads, String ratio, int max, String population,
+            int batch) throws InterruptedException {
+        System.out.printf("# impl=%s threads=%d ratio=%s max=%d population=%s batch=%d\n",
+                impl, nthreads, ratio, max, population, batch);
+
+        double[] probs = probs(ratio);
+        Workload[] workloads = new Workload[nthreads];
+        for (int t = 0; t < nthreads; t += 1)
+            workloads[t] = new Workload(probs, population(population, SEED * 3 + t, max), new Random(SEED + t),
+                    batch);
+        Population prep = population(population, SEED * 2, max);
+
+        double[] scores = new double[params.iterations];
+        for (int i = 0; i < params.warmup + params.iterations; i += 1) {
+            double score = iteration(impl, max, prep, workloads, params.time);
+            boolean measured = i >= params.warmup;
+            System.out.printf("%s %2d: %12.1f ops/ms\n",
+                    measured ? "Iteration" : "Warmup   ", measured ? i - params.warmup + 1 : i + 1, score);
+            if (measured)
+                scores[i - params.warmup] = score;
+        }
+
+        double mean = 0;
+        for (double score : scores)
+            mean += score;
+        mean /= scores.length;
+        double var = 0;
+        for (double score : scores)
+            var += (score - mean) * (score - mean);
+        double stddev = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : Double.NaN;
+        int df = scores.length - 1;
+        double t = df == 0 ? Double.NaN : df <= T_995.length ? T_995[df - 1] : 2.576;
+        double error = t * stddev / Math.sqrt(scores.length);
+        System.out.printf("Result: %.1f +- %.1f ops/ms (99%%), stddev %.1f\n\n", mean, error, stddev);
+
+        return String.format("%-10s %7d %13s %10d %-10s %5d %12.1f %10.1f %10.1f",
+                impl, nthreads, ratio, max, population, batch, mean, error, stddev);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Params params = new Params(args);
+        for (String impl : params.impls) {
+            if (!Arrays.asList(Target.IMPLS).contains(impl))
+                usage("unknown implementation: " + impl);
+        }
+
+        List<String> rows = new ArrayList<>();
+        for (String impl : params.impls)
+            for (int nthreads : params.threads)
+                for (String ratio : params.ratios)
+                    for (int max : params.maxes)
+                        for (String population : params.populations)
+                            for (int batch : params.batches)
+                                rows.add(trial(params, impl, nthreads, ratio, max, population, batch));
+
+        System.out.printf("%-10s %7s %13s %10s %-10s %5s %12s %10s %10s\n",
+                "impl", "threads", "ratio", "max", "population", "batch", "ops/ms", "+-99%", "stddev");
+        for (String row : rows)
+            System.out.println(row);
+    }
+
+}
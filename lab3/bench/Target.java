@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import primitive.IntSkipList;
+import primitive.UnrolledIntSkipList;
+
+/* One set under benchmark. Keys come boxed so that the generic lists
+ * do not pay for boxing inside the measured loop.
+ */
+interface Target extends AutoCloseable {
+    boolean contains(Integer key);
+
+    boolean add(Integer key);
+
+    boolean remove(Integer key);
+
+    /* Sets out[i] to whether keys[i] is present and returns how many
+     * are. The keys come both unboxed and boxed, so that neither form
+     * is converted inside the measured loop.
+     */
+    default int containsAll(int[] keys, Integer[] boxed, boolean[] out) {
+        int found = 0;
+        for (int i = 0; i < boxed.length; i += 1) {
+            out[i] = contains(boxed[i]);
+            if (out[i])
+                found += 1;
+        }
+        return found;
+    }
+
+    /* Releases helper threads, called once the set is dropped */
+    default void close() {
+    }
+
+    static final String[] IMPLS = { "original", "mutex", "local", "mpsc", "primitive", "unrolled", "jdk" };
+
+    /* A fresh, empty set of the given implementation */
+    static Target create(String impl) {
+        switch (impl) {
+        case "original": {
+            original.LockFreeSkipList<Integer> list = new original.LockFreeSkipList<>();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+            };
+        }
+        case "mutex": {
+            mutex.LockFreeSkipList<Integer> list = new mutex.LockFreeSkipList<>();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+            };
+        }
+        case "local": {
+            local.BookedSkipList<Integer> list = new local.BookedSkipList<>();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+            };
+        }
+        case "mpsc": {
+            mpsc.DrainedSkipList<Integer> list = new mpsc.DrainedSkipList<>();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+                public void close() { list.close(); }
+            };
+        }
+        case "primitive": {
+            IntSkipList list = new IntSkipList();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+                public int containsAll(int[] keys, Integer[] boxed, boolean[] out) { return list.containsAll(keys, out); }
+            };
+        }
+        case "unrolled": {
+            UnrolledIntSkipList list = new UnrolledIntSkipList();
+            return new Target() {
+                public boolean contains(Integer key) { return list.contains(key); }
+                public boolean add(Integer key) { return list.add(key); }
+                public boolean remove(Integer key) { return list.remove(key); }
+                public int containsAll(int[] keys, Integer[] boxed, boolean[] out) { return list.containsAll(keys, out); }
+            };
+        }
+        case "jdk": {
+            ConcurrentSkipListSet<Integer> set = new ConcurrentSkipListSet<>();
+            return new Target() {
+                public boolean contains(Integer key) { return set.contains(key); }
+                public boolean add(Integer key) { return set.add(key); }
+                public boolean remove(Integer key) { return set.remove(key); }
+            };
+        }
+        default:
+            throw new IllegalArgumentException("unknown implementation: " + impl);
+        }
+    }
+}
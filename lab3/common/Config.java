@@ -10,6 +10,7 @@ public class Config {
     public int min = 0, max; 
     public int opsPerThread;
     public double[] probs = new double[3]; 
+    public String[] modes = new String[0];
 
     public Random rng; 
     public Population prepDist; 
@@ -26,6 +27,9 @@ public class Config {
             nitems = max;
             nops = Integer.parseInt(args[6]);
             opsPerThread = nops / nthreads;
+            modes = new String[args.length - 7];
+            for (int i = 7; i < args.length; i += 1)
+                modes[i - 7] = args[i].toLowerCase();
             assert probs[2] == 1.0; 
 
             rng = new Random(seed); 
@@ -41,18 +45,26 @@ public class Config {
         } catch (Exception e) {
             System.out.println(e);
             System.err.println();
-            System.err.println("CMD: java {impl}.LockFreeSkipListTest {population} {ops_ratio} {nthreads} {max} {nops}");
+            System.err.println("CMD: java {impl}.LockFreeSkipListTest {population} {ops_ratio} {nthreads} {max} {nops} [{modes}]");
             System.err.println();
-            System.err.println("WHERE:\t {impl}             is one of {original, mutex, local, mpsc}");
+            System.err.println("WHERE:\t {impl}             is one of {original, mutex, local, mpsc, primitive}");
             System.err.println("      \t {population}       is one of {uniform, normal}");
             System.err.println("      \t {op_ratio}         is three space-separated double between [0,1] (must sum up to 1.0)");
             System.err.println("      \t {nthreads}         is natural number: 4, 16, 64, etc");
             System.err.println("      \t {max}              is the maximum possible value in the list (minimum is 0)");
             System.err.println("      \t {nops}             is total amount of operation, rounded to multiple of nthreads");
+            System.err.println("      \t {modes}            optional, space-separated, see README.md");
             System.exit(-1);
         }
     }
 
+    public boolean hasMode(String mode) {
+        for (String m : modes)
+            if (m.equals(mode))
+                return true;
+        return false;
+    }
+
     public void print() {
         System.out.println("CONFIG"); 
         System.out.println(" - nthreads: " + nthreads); 
@@ -64,6 +76,8 @@ public class Config {
         System.out.println(" - probs: " + probs[0] + " " + probs[1] + " " + probs[2]); 
         System.out.println(" - isUniform: " + isUniform); 
         System.out.println(" - opsPerThread: " + opsPerThread); 
+        if (modes.length > 0)
+            System.out.println(" - modes: " + String.join(" ", modes));
         System.out.println(); 
     }
 
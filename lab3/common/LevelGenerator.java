@@ -0,0 +1,86 @@
+package common;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Draws tower heights for the skip lists. Every thread draws from its
+ * own ThreadLocalRandom, so concurrent inserts never CAS on a shared
+ * seed the way a static java.util.Random does.
+ */
+public final class LevelGenerator {
+    private final int maxLevel;
+    private final double p;
+
+    // When p = 1/2^shift, a level costs `shift` random bits
+    // instead of a nextDouble() call.
+    private final int shift;
+
+    public LevelGenerator(int maxLevel, double p) {
+        if (!(p > 0.0 && p < 1.0))
+            throw new IllegalArgumentException("promotion probability must be in (0, 1): " + p);
+        if (maxLevel < 0 || maxLevel > 63)
+            throw new IllegalArgumentException("maxLevel must be in [0, 63]: " + maxLevel);
+
+        this.maxLevel = maxLevel;
+        this.p = p;
+
+        int bits = 0;
+        double q = p;
+        while (q < 1.0 && bits < 31) {
+            q *= 2;
+            bits++;
+        }
+        this.shift = q == 1.0 ? bits : 0;
+    }
+
+    public int maxLevel() {
+        return maxLevel;
+    }
+
+    public double probability() {
+        return p;
+    }
+
+    /* Returns a level between 0 to maxLevel,
+     * P[next() >= x] = p^x, for x <= maxLevel.
+     */
+    public int next() {
+        return next(maxLevel);
+    }
+
+    /* Same as next(), but never returns more than cap. */
+    public int next(int cap) {
+        if (cap > maxLevel)
+            cap = maxLevel;
+
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        int level = 0;
+
+        if (shift == 1) {
+            // Count trailing ones, 64 levels per draw is plenty.
+            level = Long.numberOfTrailingZeros(~rng.nextLong());
+            return level < cap ? level : cap;
+        }
+
+        if (shift > 1) {
+            long mask = (1L << shift) - 1;
+            long r = rng.nextLong();
+            int bits = 64;
+            while (level < cap) {
+                if (bits < shift) {
+                    r = rng.nextLong();
+                    bits = 64;
+                }
+                if ((r & mask) != 0)
+                    break;
+                r >>>= shift;
+                bits -= shift;
+                level++;
+            }
+            return level;
+        }
+
+        while (level < cap && rng.nextDouble() < p)
+            level++;
+        return level;
+    }
+}
@@ -0,0 +1,22 @@
+package local;
+
+/* LockFreeSkipList with one record book per calling thread, the way
+ * LockFreeSkipListTest hands every task its own book. Lets code outside
+ * this package, such as bench.SkipListBenchmark, drive the list.
+ */
+public final class BookedSkipList<T> {
+	private final LockFreeSkipList<T> list = new LockFreeSkipList<T>();
+	private final ThreadLocal<LockFreeSkipListRecordBook<T>> books = ThreadLocal.withInitial(LockFreeSkipListRecordBook::new);
+
+	public boolean add(T x) {
+		return list.add(x, books.get());
+	}
+
+	public boolean remove(T x) {
+		return list.remove(x, books.get());
+	}
+
+	public boolean contains(T x) {
+		return list.contains(x, books.get());
+	}
+}
@@ -0,0 +1,39 @@
+package local;
+
+class LockFreeSkipListRecord<T> {
+    T v;
+    int op, seq;
+    boolean r;
+    long id, ts, start;
+    String note;
+
+    static final String[] OPERATION = {
+            "CONTAIN",
+            "ADD",
+            "REMOVE",
+    };
+
+    public LockFreeSkipListRecord(int seq, int op, T v, boolean r) {
+        this.seq = seq;
+        this.op = op;
+        this.v = v;
+        this.r = r;
+        ts = System.nanoTime();
+        id = Thread.currentThread().getId();
+    }
+
+    public LockFreeSkipListRecord(int seq, int op, T v, boolean r, long start, String note) {
+        this.seq = seq;
+        this.op = op;
+        this.v = v;
+        this.r = r;
+        this.note = note;
+        this.start = start;
+        ts = System.nanoTime();
+        id = Thread.currentThread().getId();
+    }
+
+    public String operationName() {
+        return LockFreeSkipListRecord.OPERATION[op];
+    }
+}
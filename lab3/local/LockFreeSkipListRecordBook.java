@@ -0,0 +1,66 @@
+package local;
+
+import java.util.ArrayList;
+
+class LockFreeSkipListRecordBook<T> {
+    volatile int seq = 0;
+    ArrayList<LockFreeSkipListRecord<T>> records = new ArrayList<LockFreeSkipListRecord<T>>();
+
+    public LockFreeSkipListRecord<T> record(int op, T v, boolean r) {
+        LockFreeSkipListRecord<T> rc = new LockFreeSkipListRecord<T>(seq++, op, v, r);
+        rc.start = rc.ts;
+        records.add(rc);
+        return rc;
+    }
+
+    public LockFreeSkipListRecord<T> record(int op, T v, boolean r, long start, String note) {
+        LockFreeSkipListRecord<T> rc = new LockFreeSkipListRecord<T>(seq++, op, v, r, start, note);
+        records.add(rc);
+        return rc;
+    }
+
+    public void finished() {
+        records.sort((a, b) -> a.ts < b.ts ? -1 : 1);
+    }
+
+    public void print(T filter) {
+        System.out.println();
+        long b = records.get(0).start;
+
+        for (LockFreeSkipListRecord<T> r : records) {
+            if (filter != null && r.v != filter)
+                continue;
+            System.out.printf("%6d (%9d - %9d): %2d - %7s %7d %5b - ", r.seq, r.start - b, r.ts - b, r.id,
+                    r.operationName(),
+                    r.v, r.r);
+            if (r.note != null)
+                System.out.println(r.note);
+            else
+                System.out.println();
+        }
+
+        System.out.println();
+        System.out.println("Total " + records.size() + " operations.");
+    }
+
+    public void print(int from, int to) {
+        System.out.println();
+        long b = records.get(0).start;
+
+        for (LockFreeSkipListRecord<T> r : records) {
+            if (r.seq < from || r.seq >= to)
+                continue;
+            System.out.printf("%6d (%9d - %9d): %2d - %7s %7d %5b - ", r.seq, r.start - b, r.ts - b, r.id,
+                    r.operationName(),
+                    r.v, r.r);
+            if (r.note != null)
+                System.out.println(r.note);
+            else
+                System.out.println();
+        }
+
+        System.out.println();
+        System.out.println("Total " + records.size() + " operations.");
+    }
+
+}
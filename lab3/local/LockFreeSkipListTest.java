@@ -72,13 +72,11 @@ public class LockFreeSkipListTest {
         LockFreeSkipList<Integer> skiplist = new LockFreeSkipList<Integer>();
         LockFreeSkipListRecordBook<Integer> dbook = new LockFreeSkipListRecordBook<>();
 
-        int success = 0;
         for (int i = 0; i < config.nitems; i += 1) {
-            if (skiplist.add(config.prepDist.getSample(), dbook))
-                success++;
+            skiplist.add(config.prepDist.getSample(), dbook);
         }
 
-        System.out.printf("-1: %7d items\n", success);
+        System.out.printf("-1: %7d items\n", skiplist.size());
 
         List<Future<Boolean>> futures = null;
         ArrayList<Task> tasks = new ArrayList<>();
@@ -123,107 +121,6 @@ public class LockFreeSkipListTest {
 
 }
 
-class LockFreeSkipListRecord<T> {
-    T v;
-    int op, seq;
-    boolean r;
-    long id, ts, start;
-    String note;
-
-    static final String[] OPERATION = {
-            "CONTAIN",
-            "ADD",
-            "REMOVE",
-    };
-
-    public LockFreeSkipListRecord(int seq, int op, T v, boolean r) {
-        this.seq = seq;
-        this.op = op;
-        this.v = v;
-        this.r = r;
-        ts = System.nanoTime();
-        id = Thread.currentThread().getId();
-    }
-
-    public LockFreeSkipListRecord(int seq, int op, T v, boolean r, long start, String note) {
-        this.seq = seq;
-        this.op = op;
-        this.v = v;
-        this.r = r;
-        this.note = note;
-        this.start = start;
-        ts = System.nanoTime();
-        id = Thread.currentThread().getId();
-    }
-
-    public String operationName() {
-        return LockFreeSkipListRecord.OPERATION[op];
-    }
-}
-
-class LockFreeSkipListRecordBook<T> {
-    volatile int seq = 0;
-    ArrayList<LockFreeSkipListRecord<T>> records = new ArrayList<LockFreeSkipListRecord<T>>();
-
-    public LockFreeSkipListRecord<T> record(int op, T v, boolean r) {
-        LockFreeSkipListRecord<T> rc = new LockFreeSkipListRecord<T>(seq++, op, v, r);
-        rc.start = rc.ts;
-        records.add(rc);
-        return rc;
-    }
-
-    public LockFreeSkipListRecord<T> record(int op, T v, boolean r, long start, String note) {
-        LockFreeSkipListRecord<T> rc = new LockFreeSkipListRecord<T>(seq++, op, v, r, start, note);
-        records.add(rc);
-        return rc;
-    }
-
-    public void finished() {
-        records.sort((a, b) -> a.ts < b.ts ? -1 : 1);
-    }
-
-    public void print(T filter) {
-        System.out.println();
-        long b = records.get(0).start;
-
-        for (LockFreeSkipListRecord<T> r : records) {
-            if (filter != null && r.v != filter)
-                continue;
-            System.out.printf("%6d (%9d - %9d): %2d - %7s %7d %5b - ", r.seq, r.start - b, r.ts - b, r.id,
-                    r.operationName(),
-                    r.v, r.r);
-            if (r.note != null)
-                System.out.println(r.note);
-            else
-                System.out.println();
-        }
-
-        System.out.println();
-        System.out.println("Total " + records.size() + " operations.");
-    }
-
-    public void print(int from, int to) {
-        System.out.println();
-        long b = records.get(0).start;
-
-        for (LockFreeSkipListRecord<T> r : records) {
-            if (r.seq < from || r.seq >= to)
-                continue;
-            System.out.printf("%6d (%9d - %9d): %2d - %7s %7d %5b - ", r.seq, r.start - b, r.ts - b, r.id,
-                    r.operationName(),
-                    r.v, r.r);
-            if (r.note != null)
-                System.out.println(r.note);
-            else
-                System.out.println();
-        }
-
-        System.out.println();
-        System.out.println("Total " + records.size() + " operations.");
-    }
-
-}
-
 class LockFreeSkipListValidator {
 
     static final String[] OPERATION = {
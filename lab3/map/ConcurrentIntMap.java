@@ -0,0 +1,93 @@
+package map;
+
+import java.util.function.BiFunction;
+
+/* Lock-free ordered map from primitive int keys to values, the
+ * int-keyed sibling of LockFreeSkipListMap. Both run on the skip list
+ * of SkipListMapCore, here keys are compared as ints, so lookups never
+ * box and the full int range is usable. Null values are rejected.
+ */
+public class ConcurrentIntMap<V> extends SkipListMapCore<V> {
+	public ConcurrentIntMap() {
+		this(P);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public ConcurrentIntMap(double p) {
+		super(p);
+	}
+
+	@Override
+	final int compare(Node<V> node, int intKey, Object key) {
+		return Integer.compare(node.intKey, intKey);
+	}
+
+	public V get(int key) {
+		return doGet(key, null);
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/* Returns the previous value, or null if key was absent */
+	public V put(int key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		return doPut(key, null, value, false);
+	}
+
+	/* Returns the current value, or null if value was inserted */
+	public V putIfAbsent(int key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		return doPut(key, null, value, true);
+	}
+
+	/* Returns the removed value, or null if key was absent */
+	public V remove(int key) {
+		return doRemove(key, null);
+	}
+
+	/* Replaces the value of a present key, returns the previous one or null */
+	public V replace(int key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		return doReplace(key, null, value);
+	}
+
+	/* Replaces the value only if it currently is oldValue (by equals) */
+	public boolean replace(int key, V oldValue, V newValue) {
+		if (oldValue == null || newValue == null)
+			throw new NullPointerException();
+		return doReplace(key, null, oldValue, newValue);
+	}
+
+	/* Remapping function of compute(), old is null when key is absent */
+	@FunctionalInterface
+	public interface Remapping<V> {
+		V apply(int key, V old);
+	}
+
+	/* Sets key to fn(key, old), old being null when key is absent, and
+	 * returns the new value. A null result removes the mapping.
+	 *
+	 * A present key is updated by CAS on the value of its node, without
+	 * unlinking it, so fn may run more than once when updates race. Only
+	 * an absent key costs an insert.
+	 */
+	public V compute(int key, Remapping<V> fn) {
+		if (fn == null)
+			throw new NullPointerException();
+		return doCompute(key, null, old -> fn.apply(key, old));
+	}
+
+	/* Sets key to value if absent, else to fn(old, value), and returns
+	 * the new value. A null result removes the mapping.
+	 */
+	public V merge(int key, V value, BiFunction<? super V, ? super V, ? extends V> fn) {
+		if (value == null || fn == null)
+			throw new NullPointerException();
+		return doCompute(key, null, old -> old == null ? value : fn.apply(old, value));
+	}
+}
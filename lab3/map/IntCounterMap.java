@@ -0,0 +1,85 @@
+package map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Per-key counts on ConcurrentIntMap, for frequency counting. Each
+ * present key maps to a mutable cell, and an update is one search and
+ * a CAS on that cell, with no allocation. The map itself only changes
+ * when a key gains its first count or loses its last.
+ *
+ * An absent key counts as zero: the first update inserts a cell and an
+ * update that brings the count back to zero retires it. A retired cell
+ * holds DEAD until it is removed, and an update that finds one helps
+ * remove it and starts over with a fresh cell.
+ */
+public class IntCounterMap {
+	/* Count of a cell that has reached zero and is on its way out */
+	private static final long DEAD = Long.MIN_VALUE;
+
+	private final ConcurrentIntMap<AtomicLong> cells;
+
+	public IntCounterMap() {
+		cells = new ConcurrentIntMap<>();
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public IntCounterMap(double p) {
+		cells = new ConcurrentIntMap<>(p);
+	}
+
+	public long count(int key) {
+		AtomicLong cell = cells.get(key);
+		if (cell == null)
+			return 0;
+		long count = cell.get();
+		return count == DEAD ? 0 : count;
+	}
+
+	/* Whether key has a count other than zero */
+	public boolean containsKey(int key) {
+		return count(key) != 0;
+	}
+
+	public long incrementAndGet(int key) {
+		return addAndGet(key, 1);
+	}
+
+	public long decrementAndGet(int key) {
+		return addAndGet(key, -1);
+	}
+
+	/* Adds delta to the count of key, returns the new count */
+	public long addAndGet(int key, long delta) {
+		while (true) {
+			AtomicLong cell = cells.get(key);
+			if (cell == null) {
+				if (delta == 0)
+					return 0;
+				if (cells.putIfAbsent(key, new AtomicLong(delta)) == null)
+					return delta;
+				continue;
+			}
+			long count = cell.get();
+			if (count == DEAD) {
+				retire(key, cell);
+				continue;
+			}
+			long sum = count + delta;
+			// LINEARIZED: The CAS on the cell, a count that reaches zero
+			// is gone once the cell holds DEAD.
+			if (sum == 0) {
+				if (cell.compareAndSet(count, DEAD)) {
+					retire(key, cell);
+					return 0;
+				}
+			} else if (cell.compareAndSet(count, sum)) {
+				return sum;
+			}
+		}
+	}
+
+	/* Removes the DEAD cell of key, unless it was already replaced */
+	private void retire(int key, AtomicLong cell) {
+		cells.compute(key, (k, old) -> old == cell ? null : old);
+	}
+}
@@ -0,0 +1,103 @@
+package map;
+
+import java.util.Comparator;
+import java.util.function.BiFunction;
+
+/* Lock-free ordered map on the skip list of SkipListMapCore, which
+ * follows primitive.IntSkipList. Keys are ordered by a Comparator, or
+ * by their natural ordering when none is given, so equal hash codes
+ * no longer collide. Null keys and null values are rejected.
+ */
+public final class LockFreeSkipListMap<K, V> extends SkipListMapCore<V> {
+	/* null for the natural ordering of K */
+	private final Comparator<? super K> comparator;
+
+	public LockFreeSkipListMap() {
+		this(null, P);
+	}
+
+	public LockFreeSkipListMap(Comparator<? super K> comparator) {
+		this(comparator, P);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public LockFreeSkipListMap(Comparator<? super K> comparator, double p) {
+		super(p);
+		this.comparator = comparator;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	int compare(Node<V> node, int intKey, Object key) {
+		Comparator<? super K> c = comparator;
+		K x = (K) node.key;
+		return c != null ? c.compare(x, (K) key) : ((Comparable<? super K>) x).compareTo((K) key);
+	}
+
+	public V get(K key) {
+		if (key == null)
+			throw new NullPointerException();
+		return doGet(0, key);
+	}
+
+	public boolean containsKey(K key) {
+		return get(key) != null;
+	}
+
+	/* Returns the previous value, or null if key was absent */
+	public V put(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		return doPut(0, key, value, false);
+	}
+
+	/* Returns the current value, or null if value was inserted */
+	public V putIfAbsent(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		return doPut(0, key, value, true);
+	}
+
+	/* Returns the removed value, or null if key was absent */
+	public V remove(K key) {
+		if (key == null)
+			throw new NullPointerException();
+		return doRemove(0, key);
+	}
+
+	/* Replaces the value of a present key, returns the previous one or null */
+	public V replace(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		return doReplace(0, key, value);
+	}
+
+	/* Replaces the value only if it currently is oldValue (by equals) */
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (key == null || oldValue == null || newValue == null)
+			throw new NullPointerException();
+		return doReplace(0, key, oldValue, newValue);
+	}
+
+	/* Sets key to fn(key, old), old being null when key is absent, and
+	 * returns the new value. A null result removes the mapping.
+	 *
+	 * A present key is updated by CAS on the value of its node, without
+	 * unlinking it, so fn may run more than once when updates race. Only
+	 * an absent key costs an insert.
+	 */
+	public V compute(K key, BiFunction<? super K, ? super V, ? extends V> fn) {
+		if (key == null || fn == null)
+			throw new NullPointerException();
+		return doCompute(0, key, old -> fn.apply(key, old));
+	}
+
+	/* Sets key to value if absent, else to fn(old, value), and returns
+	 * the new value. A null result removes the mapping.
+	 */
+	public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> fn) {
+		if (key == null || value == null || fn == null)
+			throw new NullPointerException();
+		return doCompute(0, key, old -> old == null ? value : fn.apply(old, value));
+	}
+}
@@ -0,0 +1,419 @@
+package map;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import common.LevelGenerator;
+
+/* Lock-free skip list shared by the maps of this package, on the
+ * algorithm of primitive.IntSkipList. Subclasses choose the key type:
+ * every node carries an int key and an Object key, a subclass fills
+ * the one it uses and orders nodes with compare(). Operations take the
+ * same pair, so int keys are never boxed.
+ *
+ * The value lives in the node. A null value means the node has been
+ * removed: doRemove() linearizes by CASing the value to null, which
+ * also makes the remover the only thread that marks the tower. doPut(),
+ * doReplace() and doCompute() update the value of a live node in place.
+ * Null values never reach this class.
+ */
+abstract class SkipListMapCore<V> {
+	/* Number of levels, enough for 2^31 keys at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability */
+	static final double P = 0.5;
+
+	private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+	private static final VarHandle VALUE;
+	private static final VarHandle HEAD_LEVEL;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(Node.class, "value", Object.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(SkipListMapCore.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Node<V> head = new Node<V>(Integer.MIN_VALUE, null, null, MAX_LEVEL);
+	private final Node<V> tail = new Node<V>(Integer.MAX_VALUE, null, null, MAX_LEVEL);
+
+	/* Per-thread preds/succs, reused by every update */
+	private final ThreadLocal<Search<V>> searches = ThreadLocal.withInitial(Search::new);
+
+	private final LevelGenerator levels;
+
+	/* Highest level in use, see IntSkipList.headLevel */
+	private volatile int headLevel = 0;
+
+	/* Towers the top level needs before a level is opened above it */
+	private final int fanout;
+
+	/* p is the probability a node is promoted to the next level */
+	SkipListMapCore(double p) {
+		this.levels = new LevelGenerator(MAX_LEVEL, p);
+		this.fanout = Math.max(2, (int) Math.round(1 / p));
+		for (int i = 0; i < head.next.length; i++) {
+			head.next[i] = tail;
+		}
+	}
+
+	static final class Node<V> {
+		final int intKey;
+		final Object key;
+		final Node<V>[] next;
+		final Node<V>[] frozen;
+		private final int topLevel;
+
+		/* null once a remove has claimed the node */
+		volatile Object value;
+
+		@SuppressWarnings("unchecked")
+		Node(int intKey, Object key, V value, int height) {
+			this.intKey = intKey;
+			this.key = key;
+			this.value = value;
+			next = (Node<V>[]) new Node<?>[height + 1];
+			frozen = (Node<V>[]) new Node<?>[height + 1];
+			topLevel = height;
+		}
+	}
+
+	private static final class Search<V> {
+		@SuppressWarnings("unchecked")
+		final Node<V>[] preds = (Node<V>[]) new Node<?>[MAX_LEVEL + 1];
+		@SuppressWarnings("unchecked")
+		final Node<V>[] succs = (Node<V>[]) new Node<?>[MAX_LEVEL + 1];
+	}
+
+	/* Remapping function of doCompute(), old is null when key is absent */
+	@FunctionalInterface
+	interface Update<V> {
+		V apply(V old);
+	}
+
+	/* Orders a node, never head or tail, against the key intKey/key */
+	abstract int compare(Node<V> node, int intKey, Object key);
+
+	/* Same as IntSkipList.randomLevel(), raises headLevel first. Only
+	 * called once an insert is due.
+	 */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> Node<V> next(Node<V> node, int level) {
+		return (Node<V>) NEXT.getVolatile(node.next, level);
+	}
+
+	/* Whether level holds at least fanout unmarked towers */
+	private boolean crowded(int level) {
+		Node<V> node = unmarked(next(head, level), level);
+		for (int n = 0; n < fanout; n++) {
+			if (node == tail)
+				return false;
+			node = unmarked(next(node, level), level);
+		}
+		return true;
+	}
+
+	/* Same as IntSkipList.shrinkHead() */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			if (unmarked(next(head, current), current) != tail
+					|| !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	/* First node from node on that is not marked at level */
+	private Node<V> unmarked(Node<V> node, int level) {
+		while (node != tail && next(node, level) == node)
+			node = node.frozen[level];
+		return node;
+	}
+
+	/* Marks the node at level. Only called by the thread that claimed it. */
+	private static <V> void mark(Node<V> node, int level) {
+		while (true) {
+			Node<V> succ = next(node, level);
+			if (succ == node)
+				return;
+			node.frozen[level] = succ;
+			if (NEXT.compareAndSet(node.next, level, succ, node))
+				return;
+		}
+	}
+
+	final V doGet(int intKey, Object key) {
+		Node<V> node = search(intKey, key);
+		return node == null ? null : value(node);
+	}
+
+	/* Returns the removed value, or null if key was absent */
+	final V doRemove(int intKey, Object key) {
+		Search<V> search = searches.get();
+		if (!find(intKey, key, search.preds, search.succs, 0))
+			return null;
+
+		Node<V> node = search.succs[0];
+		while (true) {
+			V v = value(node);
+			if (v == null)
+				return null;
+			// LINEARIZED: Nulling the value removes the mapping.
+			if (VALUE.compareAndSet(node, v, null)) {
+				unlink(node, search);
+				return v;
+			}
+		}
+	}
+
+	/* Replaces the value of a present key, returns the previous one or null */
+	final V doReplace(int intKey, Object key, V value) {
+		Node<V> node = search(intKey, key);
+		if (node == null)
+			return null;
+		while (true) {
+			V v = value(node);
+			if (v == null)
+				return null;
+			if (VALUE.compareAndSet(node, v, value))
+				return v;
+		}
+	}
+
+	/* Replaces the value only if it currently is oldValue (by equals) */
+	final boolean doReplace(int intKey, Object key, V oldValue, V newValue) {
+		Node<V> node = search(intKey, key);
+		if (node == null)
+			return false;
+		while (true) {
+			V v = value(node);
+			if (v == null || !oldValue.equals(v))
+				return false;
+			if (VALUE.compareAndSet(node, v, newValue))
+				return true;
+		}
+	}
+
+	/* Sets key to fn(old), old being null when key is absent, and
+	 * returns the new value. A null result removes the mapping.
+	 *
+	 * A present key is updated by CAS on the value of its node, without
+	 * unlinking it, so fn may run more than once when updates race. Only
+	 * an absent key costs an insert.
+	 */
+	final V doCompute(int intKey, Object key, Update<V> fn) {
+		int topLevel = -1;
+		Search<V> search = searches.get();
+		Node<V>[] preds = search.preds;
+		Node<V>[] succs = search.succs;
+		int filled = Math.min(headLevel + 1, MAX_LEVEL);
+		while (true) {
+			if (find(intKey, key, preds, succs, Math.max(topLevel, filled))) {
+				Node<V> node = succs[0];
+				// NOTE: A lost CAS retries on the same node, only its
+				// removal sends us back to find().
+				V v;
+				while ((v = value(node)) != null) {
+					V value = fn.apply(v);
+					if (value != null) {
+						if (VALUE.compareAndSet(node, v, value))
+							return value;
+					} else if (VALUE.compareAndSet(node, v, null)) {
+						unlink(node, search);
+						return null;
+					}
+				}
+				continue;
+			}
+
+			V value = fn.apply(null);
+			if (value == null)
+				return null;
+			// NOTE: The level is drawn only once an insert is due, so that
+			// updates of present keys leave headLevel alone. find() filled
+			// one level above headLevel, search again only if it was
+			// raised further meanwhile.
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled)
+					continue;
+			}
+			if (link(new Node<V>(intKey, key, value, topLevel), search))
+				return value;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> V value(Node<?> node) {
+		return (V) node.value;
+	}
+
+	/* Returns the previous value, or null if the key was absent and
+	 * value was inserted. With onlyIfAbsent a present value is kept.
+	 */
+	final V doPut(int intKey, Object key, V value, boolean onlyIfAbsent) {
+		int bottomLevel = 0;
+		int topLevel = -1;
+		Search<V> search = searches.get();
+		Node<V>[] preds = search.preds;
+		Node<V>[] succs = search.succs;
+		int filled = Math.min(headLevel + 1, MAX_LEVEL);
+		while (true) {
+			if (find(intKey, key, preds, succs, Math.max(topLevel, filled))) {
+				Node<V> node = succs[bottomLevel];
+				V v = value(node);
+				// NOTE: A null here means the node was removed after
+				// find() saw it, search again and insert in front of it.
+				if (v == null)
+					continue;
+				if (onlyIfAbsent)
+					return v;
+				if (VALUE.compareAndSet(node, v, value))
+					return v;
+				continue;
+			}
+			// NOTE: Drawn only once an insert is due, see doCompute().
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled)
+					continue;
+			}
+
+			if (link(new Node<V>(intKey, key, value, topLevel), search))
+				return null;
+		}
+	}
+
+	/* Links newNode between the preds and succs of the last find(),
+	 * false if the level-0 CAS lost a race and the caller must search
+	 * again
+	 */
+	private boolean link(Node<V> newNode, Search<V> search) {
+		int bottomLevel = 0;
+		int topLevel = newNode.topLevel;
+		for (int level = bottomLevel; level <= topLevel; level++) {
+			newNode.next[level] = search.succs[level];
+		}
+
+		// LINEARIZED: The level-0 CAS publishes the new mapping.
+		Node<V> pred = search.preds[bottomLevel];
+		Node<V> succ = search.succs[bottomLevel];
+		if (!NEXT.compareAndSet(pred.next, bottomLevel, succ, newNode))
+			return false;
+
+		linkTower(newNode, topLevel, search);
+		return true;
+	}
+
+	/* Links levels 1..topLevel of a node already linked at level 0 */
+	private void linkTower(Node<V> newNode, int topLevel, Search<V> search) {
+		Node<V>[] preds = search.preds;
+		Node<V>[] succs = search.succs;
+		for (int level = 1; level <= topLevel; level++) {
+			while (true) {
+				Node<V> pred = preds[level];
+				Node<V> succ = succs[level];
+
+				// NOTE: Stop once a remove claimed the node, see IntSkipList.add().
+				Node<V> expected = next(newNode, level);
+				if (newNode.value == null || expected == newNode)
+					return;
+				if (expected != succ && !NEXT.compareAndSet(newNode.next, level, expected, succ))
+					return;
+
+				if (NEXT.compareAndSet(pred.next, level, succ, newNode))
+					break;
+				find(newNode.intKey, newNode.key, preds, succs, topLevel);
+			}
+		}
+	}
+
+	/* Marks the tower of a claimed node and snips it */
+	private void unlink(Node<V> node, Search<V> search) {
+		for (int level = node.topLevel; level >= 0; level--) {
+			mark(node, level);
+		}
+		find(node.intKey, node.key, search.preds, search.succs, 0);
+		if (node.topLevel > 0)
+			shrinkHead(node.topLevel);
+	}
+
+	/* Same as IntSkipList.find(), returns whether succs[0] is live */
+	private boolean find(int intKey, Object key, Node<V>[] preds, Node<V>[] succs, int fromLevel) {
+		int bottomLevel = 0;
+		Node<V> pred = null;
+		Node<V> curr = null;
+		Node<V> succ = null;
+		retry: while (true) {
+			pred = head;
+			for (int level = Math.max(headLevel, fromLevel); level >= bottomLevel; level--) {
+				curr = next(pred, level);
+				if (curr == pred)
+					continue retry;
+				while (true) {
+					succ = next(curr, level);
+					while (succ == curr) {
+						succ = curr.frozen[level];
+						if (!NEXT.compareAndSet(pred.next, level, curr, succ))
+							continue retry;
+						curr = succ;
+						succ = next(curr, level);
+					}
+					if (curr != tail && compare(curr, intKey, key) < 0) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return curr != tail && compare(curr, intKey, key) == 0 && curr.value != null;
+		}
+	}
+
+	/* Wait-free lookup like IntSkipList.contains(), returns the node or null */
+	private Node<V> search(int intKey, Object key) {
+		int bottomLevel = 0;
+		Node<V> pred = head;
+		Node<V> curr = null;
+		Node<V> succ = null;
+		for (int level = headLevel; level >= bottomLevel; level--) {
+			curr = next(pred, level);
+			if (curr == pred)
+				curr = pred.frozen[level];
+			while (true) {
+				succ = next(curr, level);
+				while (succ == curr) {
+					curr = curr.frozen[level];
+					succ = next(curr, level);
+				}
+				if (curr != tail && compare(curr, intKey, key) < 0) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+		}
+		return curr != tail && compare(curr, intKey, key) == 0 ? curr : null;
+	}
+}
@@ -0,0 +1,46 @@
+package mpsc;
+
+/* LockFreeSkipList with a daemon thread that drains its record book,
+ * the job MPSCTask does in LockFreeSkipListTest. The records are
+ * dropped: recording stays on the measured path, collecting them does
+ * not. Lets code outside this package, such as
+ * bench.SkipListBenchmark, drive the list.
+ */
+public final class DrainedSkipList<T> implements AutoCloseable {
+	private final LockFreeSkipList<T> list = new LockFreeSkipList<T>();
+	private final Thread consumer;
+	private volatile boolean closed = false;
+
+	public DrainedSkipList() {
+		consumer = new Thread(() -> {
+			while (!closed) {
+				if (list.book.mpsc.deq() == null)
+					Thread.onSpinWait();
+			}
+		}, "mpsc-drain");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	public boolean add(T x) {
+		return list.add(x);
+	}
+
+	public boolean remove(T x) {
+		return list.remove(x);
+	}
+
+	public boolean contains(T x) {
+		return list.contains(x);
+	}
+
+	/* Stops the consumer, no operation may run after this */
+	public void close() {
+		closed = true;
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,24 +1,31 @@
 package mpsc; 
 
 import java.util.concurrent.atomic.AtomicMarkableReference;
-import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.LevelGenerator;
 
 public final class LockFreeSkipList<T> {
 	/* Number of levels */
 	private static final int MAX_LEVEL = 16;
 
-	/* RNG for randomLevel() function */
-	/* Random is thread safe! :) */
-	private static final Random rng = new Random();
+	/* Per-thread level generator for randomLevel() */
+	private static final LevelGenerator levels = new LevelGenerator(MAX_LEVEL, 0.5);
 
 	private final Node<T> head = new Node<T>(Integer.MIN_VALUE);
 	private final Node<T> tail = new Node<T>(Integer.MAX_VALUE);
 
+	/* Live keys by tower height, updated where add() and remove()
+	 * linearize, see primitive.IntSkipList.heights
+	 */
+	private final LongAdder[] heights = new LongAdder[MAX_LEVEL + 1];
+
 	public LockFreeSkipListRecordBook<T> book = new LockFreeSkipListRecordBook<T>();
 
 	public LockFreeSkipList() {
 		for (int i = 0; i < head.next.length; i++) {
 			head.next[i] = new AtomicMarkableReference<LockFreeSkipList.Node<T>>(tail, false);
+			heights[i] = new LongAdder();
 		}
 	}
 
@@ -50,14 +57,7 @@ public final class LockFreeSkipList<T> {
 	}
 
 	private static int randomLevel() {
-		int r = rng.nextInt();
-		int level = 0;
-		r &= (1 << MAX_LEVEL) - 1;
-		while ((r & 1) != 0) {
-			r >>>= 1;
-			level++;
-		}
-		return level;
+		return levels.next();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -95,6 +95,7 @@ public final class LockFreeSkipList<T> {
 
 			if (!pred.next[bottomLevel].compareAndSet(succ, newNode, false, false))
 				continue;
+			heights[topLevel].increment();
 			book.record(1, x, true, start, "@" + topLevel + " " + pred.key);
 
 			// NOTE: Progressively creating the link
@@ -170,6 +171,7 @@ public final class LockFreeSkipList<T> {
 				if (iMarkedIt) {
 					// NOTE: This process was able to successfully
 					// delete the node by itself. 
+					heights[nodeToRemove.topLevel].decrement();
 					book.record(2, x, true, start, "by itself");
 					find(x, preds, succs);
 					return true;
@@ -221,6 +223,46 @@ public final class LockFreeSkipList<T> {
 		}
 	}
 
+	/* Number of keys, summed from the per-height counters without a
+	 * traversal. Exact while no update runs, otherwise it may be off
+	 * by the updates in flight during the call.
+	 */
+	public int size() {
+		long sum = 0;
+		for (LongAdder count : heights)
+			sum += count.sum();
+		return (int) Math.max(0, Math.min(sum, Integer.MAX_VALUE));
+	}
+
+	/* Whether level 0 holds no unmarked node. Exact while no update
+	 * runs, like size(). The walk is not atomic, so with updates in
+	 * flight it may find no key although the set was never empty.
+	 */
+	public boolean isEmpty() {
+		boolean[] marked = {false};
+		Node<T> curr = head.next[0].getReference();
+		while (curr != tail) {
+			Node<T> succ = curr.next[0].get(marked);
+			if (!marked[0])
+				return false;
+			curr = succ;
+		}
+		return true;
+	}
+
+	/* Approximate number of keys whose tower reaches each level, counted
+	 * like size(), about size() / 2^level
+	 */
+	public long[] levelSizes() {
+		long[] sizes = new long[MAX_LEVEL + 1];
+		long sum = 0;
+		for (int level = MAX_LEVEL; level >= 0; level--) {
+			sum += heights[level].sum();
+			sizes[level] = Math.max(0, sum);
+		}
+		return sizes;
+	}
+
 	public boolean contains(T x) {
 		long start = System.nanoTime();
 
@@ -100,13 +100,11 @@ public class LockFreeSkipListTest {
         ExecutorService pool = Executors.newFixedThreadPool(config.nthreads + 1);
         Future<ArrayList<LockFreeSkipListRecord<Integer>>> special = pool.submit(task);
 
-        int success = 0;
         for (int i = 0; i < config.nitems; i += 1) {
-            if (skiplist.add(config.prepDist.getSample()))
-                success++;
+            skiplist.add(config.prepDist.getSample());
         }
 
-        System.out.printf("-1: %7d items\n", success);
+        System.out.printf("-1: %7d items\n", skiplist.size());
 
 
         for (int i = 0; i < config.nthreads; i += 1) {
@@ -0,0 +1,168 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/* IntSkipList guarded by a counting Bloom filter, for read-heavy mixes
+ * where most lookups miss: contains() returns false without touching
+ * the list whenever one of the key's counters is zero.
+ *
+ * Counters are 4 bits, sixteen to a long, updated by CAS. A counter
+ * that reaches 15 sticks there and is never decremented again, so it
+ * can no longer rule keys out but never undercounts.
+ *
+ * add() raises the key's counters before it links the key and lowers
+ * them again if the key was already there, remove() lowers them only
+ * after the key is gone. Every counter is therefore at least the
+ * number of present keys hashing to it, and a zero read at any moment
+ * during contains() proves the key absent at that moment.
+ */
+public final class BloomIntSkipList implements IntSet {
+	/* Default false-positive probability the filter is sized for */
+	private static final double FPP = 0.01;
+
+	private static final int SATURATED = 15;
+
+	private static final VarHandle WORD = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final IntSkipList list;
+	private final long[] words;
+	private final long counters;
+	private final int hashes;
+
+	private final LongAdder ruledOut = new LongAdder();
+	private final LongAdder falsePositives = new LongAdder();
+
+	public BloomIntSkipList(int expectedKeys) {
+		this(new IntSkipList(), expectedKeys, FPP);
+	}
+
+	/* Guards list, sized for expectedKeys at about fpp false positives.
+	 * Keys already in list are counted in, and list must not be updated
+	 * directly while this wrapper is in use.
+	 */
+	public BloomIntSkipList(IntSkipList list, int expectedKeys, double fpp) {
+		if (expectedKeys < 1 || !(fpp > 0 && fpp < 1))
+			throw new IllegalArgumentException("expectedKeys " + expectedKeys + ", fpp " + fpp);
+		double bits = -expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2));
+		long words = Math.max(1, ((long) Math.ceil(bits) + 15) >>> 4);
+		if (words > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("filter too large: " + words + " words");
+
+		this.list = list;
+		this.words = new long[(int) words];
+		this.counters = words << 4;
+		this.hashes = Math.max(1, (int) Math.round(bits / expectedKeys * Math.log(2)));
+		list.forEach(this::increment);
+	}
+
+	public boolean add(int key) {
+		increment(key);
+		if (list.add(key))
+			return true;
+		decrement(key);
+		return false;
+	}
+
+	public boolean remove(int key) {
+		if (!list.remove(key))
+			return false;
+		decrement(key);
+		return true;
+	}
+
+	public boolean contains(int key) {
+		if (!mightContain(key)) {
+			ruledOut.increment();
+			return false;
+		}
+		if (list.contains(key))
+			return true;
+		falsePositives.increment();
+		return false;
+	}
+
+	public int size() {
+		return list.size();
+	}
+
+	/* Lookups of absent keys the filter answered */
+	public long ruledOut() {
+		return ruledOut.sum();
+	}
+
+	/* Lookups of absent keys the filter let through to the list */
+	public long falsePositives() {
+		return falsePositives.sum();
+	}
+
+	/* Share of lookups of absent keys that reached the list */
+	public double falsePositiveRate() {
+		long passed = falsePositives.sum();
+		long total = passed + ruledOut.sum();
+		return total == 0 ? 0 : (double) passed / total;
+	}
+
+	/* Bytes taken by the counters */
+	public long filterBytes() {
+		return (long) words.length << 3;
+	}
+
+	public int hashes() {
+		return hashes;
+	}
+
+	/* Two halves of a 64-bit mix of the key (the murmur3 finalizer), the
+	 * i-th counter is h1 + i * h2 (Kirsch and Mitzenmacher)
+	 */
+	private static long mix(int key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	private long index(long h, int i) {
+		long hash = (int) h + (long) i * (int) (h >>> 32);
+		return Math.floorMod(hash, counters);
+	}
+
+	private boolean mightContain(int key) {
+		long h = mix(key);
+		for (int i = 0; i < hashes; i++) {
+			long index = index(h, i);
+			long word = (long) WORD.getVolatile(words, (int) (index >>> 4));
+			if ((word >>> ((index & 15) << 2) & 15) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void increment(int key) {
+		long h = mix(key);
+		for (int i = 0; i < hashes; i++)
+			update(index(h, i), 1);
+	}
+
+	private void decrement(int key) {
+		long h = mix(key);
+		for (int i = 0; i < hashes; i++)
+			update(index(h, i), -1);
+	}
+
+	private void update(long index, int delta) {
+		int slot = (int) (index >>> 4);
+		int shift = (int) (index & 15) << 2;
+		while (true) {
+			long word = (long) WORD.getVolatile(words, slot);
+			long counter = word >>> shift & 15;
+			if (counter == SATURATED)
+				return;
+			if (WORD.compareAndSet(words, slot, word, word + ((long) delta << shift)))
+				return;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Elimination layer in front of IntSkipList, for skewed workloads where
+ * add(k) and remove(k) of the same hot key keep racing on one node.
+ *
+ * Every key hashes to a slot of an elimination array. An update first
+ * looks there for a waiting update of the opposite kind on its key and
+ * takes it with one CAS on the waiter's offer; otherwise it leaves its
+ * own offer in an empty slot for up to window spins. Either way a pair
+ * that meets returns true on both sides without touching the list:
+ * linearized together at the matching CAS, remove-then-add explains
+ * both results when the key is present at that point, add-then-remove
+ * when it is absent, and neither changes the set. An update that finds
+ * no partner goes on to the list as usual.
+ *
+ * contains() reads the list directly.
+ */
+public final class EliminatingIntSkipList implements IntSet {
+	/* Default number of slots, a power of two */
+	private static final int SLOTS = 64;
+
+	/* Default spins an offer waits for a partner */
+	private static final int WINDOW = 64;
+
+	/* Array elements between two slots, 64 bytes of references */
+	private static final int SPREAD = 16;
+
+	private static final int WAITING = 0, MATCHED = 1, CANCELLED = 2;
+
+	private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Offer[].class);
+	private static final VarHandle STATE;
+
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(Offer.class, "state", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final IntSkipList list;
+	private final Offer[] slots;
+
+	/* Key of the last update through each slot, same indexes as slots */
+	private final int[] recent;
+	private final int mask;
+	private final int window;
+
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder eliminated = new LongAdder();
+
+	public EliminatingIntSkipList() {
+		this(new IntSkipList(), SLOTS, WINDOW);
+	}
+
+	/* Eliminates in front of list, which must not be updated directly
+	 * while this wrapper is in use. slots is rounded up to a power of
+	 * two, a window of 0 only takes offers and never waits.
+	 */
+	public EliminatingIntSkipList(IntSkipList list, int slots, int window) {
+		if (slots < 1 || slots > 1 << 24 || window < 0)
+			throw new IllegalArgumentException("slots " + slots + ", window " + window);
+		int n = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+		this.list = list;
+		this.slots = new Offer[n * SPREAD];
+		this.recent = new int[n * SPREAD];
+		this.mask = n - 1;
+		this.window = window;
+	}
+
+	private static final class Offer {
+		final int key;
+		final boolean add;
+
+		/* WAITING until a partner MATCHES it or its owner CANCELS it */
+		volatile int state = WAITING;
+
+		Offer(int key, boolean add) {
+			this.key = key;
+			this.add = add;
+		}
+	}
+
+	public boolean add(int key) {
+		updates.increment();
+		return eliminate(key, true) || list.add(key);
+	}
+
+	public boolean remove(int key) {
+		updates.increment();
+		return eliminate(key, false) || list.remove(key);
+	}
+
+	public boolean contains(int key) {
+		return list.contains(key);
+	}
+
+	public int size() {
+		return list.size();
+	}
+
+	/* Updates that returned without touching the list */
+	public long eliminated() {
+		return eliminated.sum();
+	}
+
+	/* Share of all add() and remove() calls that were eliminated */
+	public double eliminationRate() {
+		long total = updates.sum();
+		return total == 0 ? 0 : (double) eliminated.sum() / total;
+	}
+
+	/* Fibonacci hashing, keeps neighbouring keys apart */
+	private int slot(int key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return ((int) (h >>> 32) & mask) * SPREAD;
+	}
+
+	/* Returns true if the update met its opposite and is done */
+	private boolean eliminate(int key, boolean add) {
+		int index = slot(key);
+		Offer other = (Offer) SLOT.getVolatile(slots, index);
+		if (other != null) {
+			if (other.key != key || other.add == add)
+				return false;
+			// LINEARIZED: Matching the offer completes both updates.
+			boolean matched = STATE.compareAndSet(other, WAITING, MATCHED);
+			SLOT.compareAndSet(slots, index, other, null);
+			if (matched)
+				eliminated.add(2);
+			return matched;
+		}
+		// NOTE: Only wait on a key that the previous update through the
+		// slot had too. Waiting costs every update the window, and
+		// pays off only for keys hot enough to meet their opposite.
+		int last = recent[index];
+		recent[index] = key;
+		if (window == 0 || last != key)
+			return false;
+
+		Offer offer = new Offer(key, add);
+		if (!SLOT.compareAndSet(slots, index, null, offer))
+			return false;
+		// NOTE: Yield once halfway, so that with fewer cores than
+		// threads the partner gets a chance to run at all.
+		for (int spin = 0; spin < window && offer.state == WAITING; spin++) {
+			if (spin == window >> 1)
+				Thread.yield();
+			Thread.onSpinWait();
+		}
+		// NOTE: Losing the cancel means a partner matched us meanwhile.
+		boolean matched = !STATE.compareAndSet(offer, WAITING, CANCELLED);
+		SLOT.compareAndSet(slots, index, offer, null);
+		return matched;
+	}
+}
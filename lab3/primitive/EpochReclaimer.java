@@ -0,0 +1,128 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/* Epoch-based reclamation. Every thread registers a Record, and wraps
+ * each operation in enter() and exit(). An item retired while the
+ * global epoch is e can only still be referenced by operations that
+ * started before the epoch moved past e + 1, and the epoch only moves
+ * on once every thread inside an operation has announced the current
+ * one. Each Record keeps one bag of retired items per epoch mod 3 and
+ * hands a bag to its recycler when it enters an epoch that reuses the
+ * bag, three epochs after the items went in.
+ *
+ * A thread cannot unregister when it exits, so register() hands the
+ * record of an exited thread to the next thread that registers. The
+ * records stay as many as the most threads registered at once.
+ */
+final class EpochReclaimer<T> {
+	/* Announced by a thread that is not inside an operation */
+	private static final long IDLE = -1;
+
+	private static final int BAGS = 3;
+
+	/* Every ADVANCE_EVERY operations a thread tries to advance the epoch */
+	private static final int ADVANCE_EVERY = 64;
+
+	private static final VarHandle EPOCH;
+
+	static {
+		try {
+			EPOCH = MethodHandles.lookup().findVarHandle(EpochReclaimer.class, "epoch", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile long epoch = 0;
+
+	/* Copy-on-write, appended to by register() when no record is free */
+	private volatile Record<?>[] records = new Record<?>[0];
+
+	static final class Record<T> {
+		volatile long announced = IDLE;
+
+		/* Epoch of this thread's last enter() */
+		private long seen;
+		private int ops;
+
+		private final ArrayList<T>[] bags;
+
+		/* Both replaced by register() once the owner has exited */
+		private Consumer<? super T> recycler;
+		private WeakReference<Thread> owner;
+
+		@SuppressWarnings("unchecked")
+		private Record(Consumer<? super T> recycler) {
+			this.recycler = recycler;
+			this.owner = new WeakReference<>(Thread.currentThread());
+			bags = (ArrayList<T>[]) new ArrayList<?>[BAGS];
+			for (int i = 0; i < BAGS; i++)
+				bags[i] = new ArrayList<>();
+		}
+	}
+
+	/* Registers the calling thread. Retired items become safe to reuse
+	 * in a later enter() of the same thread, which passes them to
+	 * recycler. A record taken over from an exited thread keeps its
+	 * bags, their items go to the new recycler.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized Record<T> register(Consumer<? super T> recycler) {
+		for (Record<?> free : records) {
+			// NOTE: A thread that has exited left its record idle, and
+			// seeing it dead orders its last writes before ours.
+			Thread owner = free.owner.get();
+			if (owner == null || !owner.isAlive()) {
+				Record<T> record = (Record<T>) free;
+				record.recycler = recycler;
+				record.owner = new WeakReference<>(Thread.currentThread());
+				return record;
+			}
+		}
+		Record<T> record = new Record<>(recycler);
+		Record<?>[] next = Arrays.copyOf(records, records.length + 1);
+		next[records.length] = record;
+		records = next;
+		return record;
+	}
+
+	void enter(Record<T> record) {
+		long current = epoch;
+		record.announced = current;
+		if (current != record.seen) {
+			// NOTE: The bag being reused was last filled at
+			// current - 3 or earlier, every item in it is unreachable.
+			ArrayList<T> bag = record.bags[(int) (current % BAGS)];
+			for (int i = 0; i < bag.size(); i++)
+				record.recycler.accept(bag.get(i));
+			bag.clear();
+			record.seen = current;
+		}
+		if (++record.ops % ADVANCE_EVERY == 0)
+			tryAdvance(current);
+	}
+
+	void exit(Record<T> record) {
+		record.announced = IDLE;
+	}
+
+	/* Retires an item that is no longer reachable by new operations */
+	void retire(Record<T> record, T item) {
+		record.bags[(int) (record.seen % BAGS)].add(item);
+	}
+
+	private void tryAdvance(long current) {
+		for (Record<?> record : records) {
+			long announced = record.announced;
+			if (announced != IDLE && announced != current)
+				return;
+		}
+		EPOCH.compareAndSet(this, current, current + 1);
+	}
+}
@@ -0,0 +1,186 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/* Flat-combining front end for IntSkipList, for skewed workloads where
+ * many threads update the same few links and keep losing their CAS.
+ *
+ * Each thread owns a slot. add() and remove() publish the request in
+ * the slot and wait. Whoever takes the combiner lock collects every
+ * pending request, sorts them by key and applies them to the list in
+ * that order with finger searches, so a batch costs about one walk
+ * along the list and only the combiner touches the hot links. Every
+ * request is still one linearizable operation of the list, applied
+ * while its caller waits, so the wrapper is linearizable too.
+ *
+ * contains() never CASes, it reads the list directly instead of
+ * queueing behind the updates.
+ */
+public final class FlatCombiningIntSkipList implements IntSet {
+	/* Passes over the slots per lock acquisition */
+	private static final int PASSES = 3;
+
+	/* Spins between looks at the lock before yielding */
+	private static final int SPINS = 64;
+
+	private static final int EMPTY = 0, PENDING = 1, DONE = 2;
+	private static final int ADD = 1, REMOVE = 2;
+
+	private static final VarHandle LOCK;
+
+	static {
+		try {
+			LOCK = MethodHandles.lookup().findVarHandle(FlatCombiningIntSkipList.class, "lock", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final IntSkipList list;
+
+	/* 1 while a thread is combining */
+	private volatile int lock = 0;
+
+	/* Copy-on-write, one per live thread that has updated */
+	private volatile Slot[] slots = new Slot[0];
+
+	private final ThreadLocal<Slot> mine = ThreadLocal.withInitial(this::register);
+
+	/* Written by the combiner only, under the lock */
+	private long batches, requests;
+
+	public FlatCombiningIntSkipList() {
+		this(new IntSkipList());
+	}
+
+	/* Combines the updates of list, which must not be updated directly
+	 * while this wrapper is in use
+	 */
+	public FlatCombiningIntSkipList(IntSkipList list) {
+		this.list = list;
+	}
+
+	private static final class Slot {
+		long p0, p1, p2, p3, p4, p5, p6;
+
+		/* EMPTY, PENDING once op and key are set, DONE once result is */
+		volatile int state = EMPTY;
+		int op, key;
+		boolean result;
+
+		/* Combiner scratch: (key << 32 | slot index) of a batch */
+		long[] batch = new long[16];
+
+		/* Cleared by the collector once the thread is gone */
+		WeakReference<Thread> owner;
+
+		long q0, q1, q2, q3, q4, q5, q6;
+	}
+
+	/* Hands the calling thread the slot of a thread that has exited, or
+	 * a new one, so combiners scan only as many slots as the most
+	 * threads alive at once. A thread only exits between requests, so
+	 * the slot it leaves is EMPTY.
+	 */
+	private synchronized Slot register() {
+		Thread self = Thread.currentThread();
+		for (Slot slot : slots) {
+			Thread owner = slot.owner.get();
+			if (owner == null || !owner.isAlive()) {
+				slot.owner = new WeakReference<>(self);
+				return slot;
+			}
+		}
+		Slot slot = new Slot();
+		slot.owner = new WeakReference<>(self);
+		Slot[] next = Arrays.copyOf(slots, slots.length + 1);
+		next[slots.length] = slot;
+		slots = next;
+		return slot;
+	}
+
+	public boolean add(int key) {
+		return submit(ADD, key);
+	}
+
+	public boolean remove(int key) {
+		return submit(REMOVE, key);
+	}
+
+	public boolean contains(int key) {
+		return list.contains(key);
+	}
+
+	public int size() {
+		return list.size();
+	}
+
+	/* Batches applied so far */
+	public long batches() {
+		return batches;
+	}
+
+	/* Requests applied so far */
+	public long requests() {
+		return requests;
+	}
+
+	private boolean submit(int op, int key) {
+		Slot slot = mine.get();
+		slot.op = op;
+		slot.key = key;
+		slot.state = PENDING;
+		int spins = 0;
+		while (true) {
+			if (lock == 0 && LOCK.compareAndSet(this, 0, 1)) {
+				try {
+					combine(slot);
+				} finally {
+					lock = 0;
+				}
+			}
+			if (slot.state == DONE) {
+				slot.state = EMPTY;
+				return slot.result;
+			}
+			// NOTE: With fewer cores than threads the combiner may be
+			// descheduled, spinning would only delay it further.
+			if (++spins % SPINS == 0)
+				Thread.yield();
+			else
+				Thread.onSpinWait();
+		}
+	}
+
+	/* Applies pending requests until a pass finds none, or PASSES times */
+	private void combine(Slot own) {
+		for (int pass = 0; pass < PASSES; pass++) {
+			Slot[] slots = this.slots;
+			long[] batch = own.batch;
+			if (batch.length < slots.length)
+				batch = own.batch = new long[slots.length];
+
+			int n = 0;
+			for (int i = 0; i < slots.length; i++) {
+				if (slots[i].state == PENDING)
+					batch[n++] = (long) slots[i].key << 32 | i;
+			}
+			if (n == 0)
+				return;
+
+			// NOTE: The index sits in the low half, so keys sort as
+			// signed ints and equal keys keep slot order.
+			Arrays.sort(batch, 0, n);
+			for (int j = 0; j < n; j++) {
+				Slot slot = slots[(int) batch[j]];
+				slot.result = slot.op == ADD ? list.addNext(slot.key) : list.removeNext(slot.key);
+				slot.state = DONE;
+			}
+			batches++;
+			requests += n;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package primitive;
+
+/* Operations the primitive harness runs against, implemented by
+ * every int set in this package.
+ */
+public interface IntSet {
+	boolean add(int key);
+
+	boolean remove(int key);
+
+	boolean contains(int key);
+
+	/* Sets out[i] to contains(keys[i]) for every key, returns how many
+	 * are present
+	 */
+	default int containsAll(int[] keys, boolean[] out) {
+		int found = 0;
+		for (int i = 0; i < keys.length; i++) {
+			out[i] = contains(keys[i]);
+			if (out[i])
+				found++;
+		}
+		return found;
+	}
+
+	int size();
+}
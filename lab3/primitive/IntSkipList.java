@@ -0,0 +1,1367 @@
+package primitive;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import common.LevelGenerator;
+
+/* Lock-free skip list set specialised for int keys.
+ * Same algorithm as original.LockFreeSkipList, but the key is
+ * the int itself, so no Integer is boxed and no hashCode() is
+ * called on the hot path. The tail sentinel is compared by
+ * reference, so every int including MAX_VALUE is a valid key.
+ *
+ * Links are plain Node references updated through a VarHandle.
+ * A level is marked by pointing next[level] at the node itself,
+ * the successor it had is kept in frozen[level]. Only the thread
+ * that claimed the node writes frozen[], so the mark and the
+ * pointer live in a single CAS-able field without allocating an
+ * AtomicMarkableReference pair per link or per CAS.
+ */
+public final class IntSkipList implements IntSet {
+	/* Number of levels, enough for 2^31 keys at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability */
+	private static final double P = 0.5;
+
+	/* Snapshot file: magic, key count, then the keys ascending, all
+	 * big-endian ints
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x49534c31;
+	private static final int SNAPSHOT_HEADER = 8;
+
+	/* Lookups containsAll() interleaves */
+	private static final int GROUP = 8;
+
+	private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+	private static final VarHandle CLAIMED;
+	private static final VarHandle STATUS;
+	private static final VarHandle HEAD_LEVEL;
+
+	/* Node.claimed of a node a remove has taken */
+	private static final Object REMOVED = new Object();
+
+	/* Batch.status values */
+	private static final int UNDECIDED = 0;
+	private static final int COMMITTED = 1;
+	private static final int ABORTED = 2;
+
+	static {
+		try {
+			CLAIMED = MethodHandles.lookup().findVarHandle(Node.class, "claimed", Object.class);
+			STATUS = MethodHandles.lookup().findVarHandle(Batch.class, "status", int.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(IntSkipList.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Node head = new Node(Integer.MIN_VALUE, MAX_LEVEL);
+	private final Node tail = new Node(Integer.MAX_VALUE, MAX_LEVEL);
+
+	/* Per-thread preds/succs, reused by every add and remove */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+	private final LevelGenerator levels;
+
+	/* Finger mode: every operation resumes from the calling thread's
+	 * previous search path instead of from head, see findFrom().
+	 */
+	private final boolean fingers;
+
+	/* Highest level in use. Searches start here instead of at
+	 * MAX_LEVEL. An insert raises it by at most one, and only once the
+	 * top level holds fanout towers, a remove that empties the top
+	 * level lowers it, so it tracks log(1/p) of the element count
+	 * rather than the number of inserts.
+	 */
+	private volatile int headLevel = 0;
+
+	/* Towers the top level needs before a level is opened above it,
+	 * 1/p rounded as in stride()
+	 */
+	private final int fanout;
+
+	/* Live keys by tower height, updated where add() and remove()
+	 * linearize. LongAdder spreads updates over per-thread cells once
+	 * it sees contention, so no operation CASes a shared counter.
+	 */
+	private final LongAdder[] heights = new LongAdder[MAX_LEVEL + 1];
+
+	/* Searches redone after a lost CAS or snip, by where they resumed */
+	private final LongAdder localRestarts = new LongAdder();
+	private final LongAdder headRestarts = new LongAdder();
+
+	public IntSkipList() {
+		this(P, false);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public IntSkipList(double p) {
+		this(p, false);
+	}
+
+	/* With fingers set, add, remove and contains start from where the
+	 * same thread's last search ended when that path is still valid.
+	 * Pays off for skewed or sequential key streams, costs a few extra
+	 * loads per operation for uniform ones.
+	 */
+	public IntSkipList(double p, boolean fingers) {
+		this.fingers = fingers;
+		levels = new LevelGenerator(MAX_LEVEL, p);
+		fanout = stride(p);
+		for (int i = 0; i < head.next.length; i++) {
+			head.next[i] = tail;
+			heights[i] = new LongAdder();
+		}
+	}
+
+	/* Bulk-load constructor, see fromSorted(). keys[0..n) must be
+	 * strictly ascending and are read with absolute gets only. Every
+	 * link is a plain write: nothing is shared until the constructor
+	 * returns, and head is final, so the nodes reachable from it are
+	 * published together with the list.
+	 */
+	private IntSkipList(double p, boolean fingers, IntBuffer keys, int n, boolean parallel) {
+		this(p, fingers);
+		int stride = stride(p);
+		if (parallel)
+			buildParallel(keys, n, stride);
+		else
+			build(keys, n, stride);
+	}
+
+	/* Builds a list holding keys, which must be sorted ascending,
+	 * duplicates are dropped. Takes one pass instead of keys.length
+	 * concurrent inserts: towers are deterministic, every 1/p-th node
+	 * of a level is promoted to the next one, and links are set with
+	 * plain writes before the list is published.
+	 */
+	public static IntSkipList fromSorted(int[] keys) {
+		return fromSorted(keys, P, false);
+	}
+
+	public static IntSkipList fromSorted(int[] keys, double p, boolean fingers) {
+		int n = keys.length;
+		boolean duplicates = false;
+		for (int i = 1; i < n; i++) {
+			if (keys[i] < keys[i - 1])
+				throw new IllegalArgumentException("keys not sorted at index " + i);
+			if (keys[i] == keys[i - 1])
+				duplicates = true;
+		}
+		// NOTE: Only after the whole array is checked, distinct()
+		// trusts the order.
+		if (duplicates) {
+			keys = keys.clone();
+			n = distinct(keys);
+		}
+		return new IntSkipList(p, fingers, IntBuffer.wrap(keys), n, false);
+	}
+
+	/* Same as fromSorted() for keys in any order. Sorts a copy with
+	 * Arrays.parallelSort() and creates and links the nodes in
+	 * parallel, each node's successors follow from its index.
+	 */
+	public static IntSkipList fromUnsorted(int[] keys) {
+		return fromUnsorted(keys, P, false);
+	}
+
+	public static IntSkipList fromUnsorted(int[] keys, double p, boolean fingers) {
+		int[] sorted = keys.clone();
+		Arrays.parallelSort(sorted);
+		return new IntSkipList(p, fingers, IntBuffer.wrap(sorted), distinct(sorted), true);
+	}
+
+	/* Writes the keys to file in ascending order. The walk is the one
+	 * of iterator(), exact while no update runs and weakly consistent
+	 * otherwise, the keys written are strictly ascending either way.
+	 * The file is written next to its target and moved into place, so
+	 * a crash never leaves a partial snapshot behind.
+	 */
+	public void snapshotTo(Path file) throws IOException {
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.position(SNAPSHOT_HEADER);
+			int count = 0;
+			PrimitiveIterator.OfInt it = iterator();
+			while (it.hasNext()) {
+				if (!buffer.hasRemaining())
+					writeFully(channel, buffer);
+				buffer.putInt(it.nextInt());
+				count++;
+			}
+			writeFully(channel, buffer);
+
+			ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+			header.putInt(SNAPSHOT_MAGIC).putInt(count).flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(false);
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/* Builds a list from a file written by snapshotTo(). The file is
+	 * memory-mapped and the keys are linked straight from the mapping
+	 * as in fromUnsorted(), without sorting or a CAS per key. Files
+	 * above 2 GB, about 500 million keys, cannot be mapped in one
+	 * piece and are rejected.
+	 */
+	public static IntSkipList loadFrom(Path file) throws IOException {
+		return loadFrom(file, P, false);
+	}
+
+	public static IntSkipList loadFrom(Path file, double p, boolean fingers) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("snapshot too large to map: " + file);
+			if (length < SNAPSHOT_HEADER)
+				throw new IOException("not a skip list snapshot: " + file);
+
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (map.getInt(0) != SNAPSHOT_MAGIC)
+				throw new IOException("not a skip list snapshot: " + file);
+			int n = map.getInt(4);
+			if (n < 0 || (long) n * 4 != length - SNAPSHOT_HEADER)
+				throw new IOException("truncated snapshot: " + file);
+
+			IntBuffer keys = map.position(SNAPSHOT_HEADER).slice().asIntBuffer();
+			for (int i = 1; i < n; i++) {
+				if (keys.get(i) <= keys.get(i - 1))
+					throw new IOException("snapshot keys not ascending at index " + i + ": " + file);
+			}
+			return new IntSkipList(p, fingers, keys, n, true);
+		}
+	}
+
+	/* Drops adjacent duplicates in place, returns the new length */
+	private static int distinct(int[] sorted) {
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1])
+				sorted[n++] = sorted[i];
+		}
+		return n;
+	}
+
+	/* Spacing of the deterministic towers. p that is not 1/k is
+	 * rounded to the nearest such value, and kept at 1/2 or below.
+	 */
+	private static int stride(double p) {
+		return Math.max(2, (int) Math.round(1 / p));
+	}
+
+	/* Height of the node at index i: how often stride divides i + 1 */
+	private static int height(int i, int stride) {
+		int rank = i + 1;
+		int level = 0;
+		while (level < MAX_LEVEL && rank % stride == 0) {
+			rank /= stride;
+			level++;
+		}
+		return level;
+	}
+
+	/* Sequential build, keeps the last node seen on every level */
+	private void build(IntBuffer keys, int n, int stride) {
+		Node[] last = new Node[MAX_LEVEL + 1];
+		Arrays.fill(last, head);
+		int top = 0;
+		for (int i = 0; i < n; i++) {
+			int height = height(i, stride);
+			Node node = new Node(keys.get(i), height);
+			heights[height].increment();
+			for (int level = 0; level <= height; level++) {
+				last[level].next[level] = node;
+				last[level] = node;
+			}
+			if (height > top)
+				top = height;
+		}
+		for (int level = 0; level <= top; level++) {
+			last[level].next[level] = tail;
+		}
+		headLevel = top;
+	}
+
+	/* Parallel build. A node at index i reaches level l iff stride^l
+	 * divides i + 1, so its successor there is at i + stride^l and
+	 * every node can be linked independently of the others.
+	 */
+	private void buildParallel(IntBuffer keys, int n, int stride) {
+		Node[] nodes = new Node[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int height = height(i, stride);
+			nodes[i] = new Node(keys.get(i), height);
+			heights[height].increment();
+		});
+		IntStream.range(0, n).parallel().forEach(i -> {
+			Node node = nodes[i];
+			long step = 1;
+			for (int level = 0; level <= node.topLevel; level++) {
+				node.next[level] = i + step < n ? nodes[(int) (i + step)] : tail;
+				if (step < n)
+					step *= stride;
+			}
+		});
+
+		int top = 0;
+		long step = 1;
+		for (int level = 0; level <= MAX_LEVEL && step <= n; level++) {
+			head.next[level] = nodes[(int) (step - 1)];
+			top = level;
+			step *= stride;
+		}
+		headLevel = top;
+	}
+
+	private static final class Node {
+		final int key;
+		final Node[] next;
+		final Node[] frozen;
+		private final int topLevel;
+
+		/* null while live, REMOVED once a remove has claimed the node,
+		 * or the Batch holding it, see live()
+		 */
+		volatile Object claimed;
+
+		public Node(int key, int height) {
+			this.key = key;
+			next = new Node[height + 1];
+			frozen = new Node[height + 1];
+			topLevel = height;
+		}
+	}
+
+	private static final class Search {
+		final Node[] preds = new Node[MAX_LEVEL + 1];
+		final Node[] succs = new Node[MAX_LEVEL + 1];
+
+		/* Where each search of a containsAll() group stands */
+		final Node[] cursors = new Node[GROUP];
+		final int[] levels = new int[GROUP];
+	}
+
+	/* One attempt of atomicBatch(). The nodes it adds are linked with
+	 * claimed set to the batch, the nodes it removes are claimed by a
+	 * CAS from null to the batch. While the status is UNDECIDED or
+	 * ABORTED such nodes read as before the batch, once it is COMMITTED
+	 * as after it, so the status CAS switches all keys at once. Any
+	 * thread may then release a held node to null or REMOVED.
+	 */
+	private static final class Batch {
+		final int[] keys;
+		final boolean[] adds;
+		volatile int status = UNDECIDED;
+
+		Batch(int[] keys, boolean[] adds) {
+			this.keys = keys;
+			this.adds = adds;
+		}
+
+		/* Whether node, held by this batch, holds its key */
+		boolean live(Node node) {
+			return adds[Arrays.binarySearch(keys, node.key)] == (status == COMMITTED);
+		}
+	}
+
+	/* Whether node holds its key, the test find() and the walks apply */
+	private static boolean live(Node node) {
+		Object claimed = node.claimed;
+		return claimed == null || claimed instanceof Batch && ((Batch) claimed).live(node);
+	}
+
+	/* Returns a level between 0 and headLevel + 1,
+	 * P[randomLevel() >= x] = p^x below the cap. A level above
+	 * headLevel is only granted while the top level is crowded(),
+	 * otherwise the tower stops at headLevel. Raises headLevel before
+	 * returning, so find() from there fills preds/succs for the whole
+	 * tower. Only called once an insert is due: every call may raise
+	 * the head, and adds of present keys must not.
+	 */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	/* Whether level holds at least fanout unmarked towers. Walks no
+	 * further than that, which at the top level is a few nodes.
+	 */
+	private boolean crowded(int level) {
+		Node node = succ(head, level);
+		for (int n = 0; n < fanout; n++) {
+			while (node != tail && NEXT.getVolatile(node.next, level) == node)
+				node = node.frozen[level];
+			if (node == tail)
+				return false;
+			node = succ(node, level);
+		}
+		return true;
+	}
+
+	/* Lowers headLevel past the top levels that hold no unmarked tower,
+	 * after the tower of a removed node reaching level was marked.
+	 * Nodes still being linked above headLevel stay reachable from the
+	 * levels below, and find() starts high enough for any tower an
+	 * insert has drawn.
+	 */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			Node node = succ(head, current);
+			while (node != tail && NEXT.getVolatile(node.next, current) == node)
+				node = node.frozen[current];
+			if (node != tail || !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	/* Successor of node at level, whether or not the level is marked. */
+	private static Node succ(Node node, int level) {
+		Node succ = (Node) NEXT.getVolatile(node.next, level);
+		return succ == node ? node.frozen[level] : succ;
+	}
+
+	/* Marks the node at level. Only called by the thread that claimed it. */
+	private static void mark(Node node, int level) {
+		while (true) {
+			Node succ = (Node) NEXT.getVolatile(node.next, level);
+			if (succ == node)
+				return;
+			node.frozen[level] = succ;
+			if (NEXT.compareAndSet(node.next, level, succ, node))
+				return;
+		}
+	}
+
+	public boolean add(int key) {
+		return add(key, searches.get(), fingers);
+	}
+
+	public boolean remove(int key) {
+		return remove(key, searches.get(), fingers);
+	}
+
+	/* Adds every key of a batch sorted in ascending order and returns
+	 * how many were not present yet. Each key is still a separate
+	 * linearizable add(), but its search resumes from the preds left by
+	 * the previous key instead of from head, so a sorted batch costs
+	 * about one walk along the list rather than one descent per key.
+	 * Unsorted input is handled correctly, only slower.
+	 */
+	public int addAll(int[] sortedKeys) {
+		Search search = searches.get();
+		int added = 0;
+		for (int key : sortedKeys) {
+			if (add(key, search, true))
+				added++;
+		}
+		return added;
+	}
+
+	/* Same as addAll(), returns how many keys were removed */
+	public int removeAll(int[] sortedKeys) {
+		Search search = searches.get();
+		int removed = 0;
+		for (int key : sortedKeys) {
+			if (remove(key, search, true))
+				removed++;
+		}
+		return removed;
+	}
+
+	/* add() and remove() resuming from the calling thread's previous
+	 * search, whatever the finger mode, for FlatCombiningIntSkipList
+	 * applying a sorted batch
+	 */
+	boolean addNext(int key) {
+		return add(key, searches.get(), true);
+	}
+
+	boolean removeNext(int key) {
+		return remove(key, searches.get(), true);
+	}
+
+	private boolean add(int key, Search search, boolean finger) {
+		int topLevel = -1;
+		int bottomLevel = 0;
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		// NOTE: A search from head fills one level above headLevel,
+		// enough for any level randomLevel() draws right after it.
+		int filled = finger ? 0 : Math.min(headLevel + 1, MAX_LEVEL);
+		boolean found = locate(key, search, filled, finger);
+		while (true) {
+			if (found) {
+				return false;
+			}
+			// NOTE: A node of key held by a batch reads as absent, but
+			// would come back if the batch commits. Settle it first.
+			Node succ = succs[bottomLevel];
+			if (settle(succ, key, search, finger)) {
+				found = relocate(key, search, Math.max(topLevel, 0));
+				continue;
+			}
+			// NOTE: The level is drawn only once an insert is due, see
+			// randomLevel(). If the search may have started below it,
+			// descend again from topLevel to fill preds and succs there.
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled) {
+					found = findFrom(key, preds, succs, topLevel);
+					continue;
+				}
+			}
+
+			Node newNode = new Node(key, topLevel);
+			for (int level = bottomLevel; level <= topLevel; level++) {
+				newNode.next[level] = succs[level];
+			}
+
+			// LINEARIZED: The level-0 CAS publishes the new node.
+			Node pred = preds[bottomLevel];
+			if (!NEXT.compareAndSet(pred.next, bottomLevel, succ, newNode)) {
+				found = relocate(key, search, topLevel);
+				continue;
+			}
+			heights[topLevel].increment();
+
+			linkTower(newNode, search);
+			return true;
+		}
+	}
+
+	/* Links levels 1..topLevel of a node already linked at level 0,
+	 * preds and succs being those of its level-0 link
+	 */
+	private void linkTower(Node newNode, Search search) {
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		int topLevel = newNode.topLevel;
+		for (int level = 1; level <= topLevel; level++) {
+			while (true) {
+				Node pred = preds[level];
+				Node succ = succs[level];
+
+				// NOTE: A remove may have claimed the node already, in
+				// which case it is marking the tower and there is no
+				// point linking it any higher. The CAS on newNode.next
+				// fails if the level was marked meanwhile.
+				Node expected = (Node) NEXT.getVolatile(newNode.next, level);
+				if (newNode.claimed == REMOVED || expected == newNode)
+					return;
+				if (expected != succ && !NEXT.compareAndSet(newNode.next, level, expected, succ))
+					return;
+
+				if (NEXT.compareAndSet(pred.next, level, succ, newNode))
+					break;
+				relocate(newNode.key, search, topLevel);
+			}
+		}
+	}
+
+	private boolean remove(int key, Search search, boolean finger) {
+		int bottomLevel = 0;
+		Node[] succs = search.succs;
+
+		boolean found = locate(key, search, 0, finger);
+		if (!found) {
+			return false;
+		}
+
+		return delete(succs[bottomLevel], search, finger);
+	}
+
+	/* Claims a node seen live, then marks and snips its tower */
+	private boolean delete(Node nodeToRemove, Search search, boolean finger) {
+		while (true) {
+			Object claimed = nodeToRemove.claimed;
+			if (claimed instanceof Batch) {
+				release((Batch) claimed, nodeToRemove, search, finger);
+				continue;
+			}
+			// LINEARIZED: Claiming the node removes the key. Losing the
+			// claim means another remove took it after it was seen live.
+			if (claimed != null || !CLAIMED.compareAndSet(nodeToRemove, null, REMOVED)) {
+				return false;
+			}
+			heights[nodeToRemove.topLevel].decrement();
+			unlink(nodeToRemove, search, finger);
+			return true;
+		}
+	}
+
+	/* Marks and snips the tower of a node this thread set to REMOVED */
+	private void unlink(Node node, Search search, boolean finger) {
+		int bottomLevel = 0;
+		for (int level = node.topLevel; level >= bottomLevel; level--) {
+			mark(node, level);
+		}
+		locate(node.key, search, 0, finger);
+		if (node.topLevel > 0)
+			shrinkHead(node.topLevel);
+	}
+
+	/* Moves key from to key to in one step. Returns false and changes
+	 * nothing when from is absent or to is present, always so when
+	 * from == to.
+	 *
+	 * NOTE: A move is a two-key atomicBatch() and retries when another
+	 * batch aborts it, so it is only obstruction-free. Moves that keep
+	 * crossing the same keys can livelock, each aborting the other,
+	 * while single adds and removes on those keys still finish.
+	 */
+	public boolean move(int from, int to) {
+		if (from == to)
+			return false;
+		return atomicBatch(new int[] { to }, new int[] { from });
+	}
+
+	/* Adds every key of adds and removes every key of removes as one
+	 * linearizable step, or returns false and changes nothing when one
+	 * of adds is present or one of removes absent. The keys must be
+	 * distinct.
+	 *
+	 * Keys are taken in ascending order, each with a single CAS as in
+	 * add() and remove(), then one CAS on the batch status commits
+	 * them all. add() and remove() abort an undecided batch they run
+	 * into and go on, so they stay lock-free. Batches abort each other
+	 * the same way and retry, which makes them only obstruction-free:
+	 * batches over the same keys in a tight loop can keep aborting
+	 * each other.
+	 */
+	public boolean atomicBatch(int[] adds, int[] removes) {
+		int n = adds.length + removes.length;
+		long[] ops = new long[n];
+		for (int i = 0; i < adds.length; i++)
+			ops[i] = (long) adds[i] << 1 | 1;
+		for (int i = 0; i < removes.length; i++)
+			ops[adds.length + i] = (long) removes[i] << 1;
+		Arrays.sort(ops);
+		int[] keys = new int[n];
+		boolean[] isAdd = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = (int) (ops[i] >> 1);
+			isAdd[i] = (ops[i] & 1) != 0;
+			if (i > 0 && keys[i] == keys[i - 1])
+				throw new IllegalArgumentException("duplicate key: " + keys[i]);
+		}
+
+		Search search = searches.get();
+		Node[] nodes = new Node[n];
+		while (true) {
+			Batch batch = new Batch(keys, isAdd);
+			boolean held = hold(batch, nodes, search);
+			if (held)
+				STATUS.compareAndSet(batch, UNDECIDED, COMMITTED);
+			else
+				STATUS.compareAndSet(batch, UNDECIDED, ABORTED);
+			for (int i = 0; i < n; i++) {
+				if (nodes[i] != null)
+					release(batch, nodes[i], search, true);
+				nodes[i] = null;
+			}
+			if (batch.status == COMMITTED)
+				return true;
+			if (!held)
+				return false;
+			Thread.yield();
+		}
+	}
+
+	/* Takes every key of batch for it, recording the nodes taken.
+	 * Returns false when a key is in the wrong state, true once all
+	 * are held or when another thread aborted the batch.
+	 */
+	private boolean hold(Batch batch, Node[] nodes, Search search) {
+		int bottomLevel = 0;
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		for (int i = 0; i < batch.keys.length; i++) {
+			int key = batch.keys[i];
+			boolean add = batch.adds[i];
+			int topLevel = add ? -1 : 0;
+			while (true) {
+				if (batch.status != UNDECIDED)
+					return true;
+				boolean found = locate(key, search, Math.max(topLevel, 0), true);
+				Node succ = succs[bottomLevel];
+				if (settle(succ, key, search, true))
+					continue;
+				if (found != !add)
+					return false;
+				if (topLevel < 0) {
+					topLevel = randomLevel();
+					if (topLevel > 0)
+						continue;
+				}
+
+				if (!add) {
+					if (!CLAIMED.compareAndSet(succ, null, batch))
+						continue;
+					nodes[i] = succ;
+					break;
+				}
+
+				Node newNode = new Node(key, topLevel);
+				newNode.claimed = batch;
+				for (int level = bottomLevel; level <= topLevel; level++) {
+					newNode.next[level] = succs[level];
+				}
+				Node pred = preds[bottomLevel];
+				if (!NEXT.compareAndSet(pred.next, bottomLevel, succ, newNode))
+					continue;
+				nodes[i] = newNode;
+				linkTower(newNode, search);
+				break;
+			}
+		}
+		return true;
+	}
+
+	/* Releases node if it holds key for some batch, returns whether it
+	 * did, in which case the caller must search again
+	 */
+	private boolean settle(Node node, int key, Search search, boolean finger) {
+		if (node == tail || node.key != key)
+			return false;
+		Object claimed = node.claimed;
+		if (!(claimed instanceof Batch))
+			return false;
+		release((Batch) claimed, node, search, finger);
+		return true;
+	}
+
+	/* Settles a node held by batch: aborts the batch if still undecided,
+	 * then sets the node to null or REMOVED by the outcome. The thread
+	 * whose CAS does it counts the change and unlinks a removed node.
+	 */
+	private void release(Batch batch, Node node, Search search, boolean finger) {
+		STATUS.compareAndSet(batch, UNDECIDED, ABORTED);
+		boolean live = batch.live(node);
+		if (!CLAIMED.compareAndSet(node, batch, live ? null : REMOVED))
+			return;
+		if (batch.status == COMMITTED) {
+			if (live)
+				heights[node.topLevel].increment();
+			else
+				heights[node.topLevel].decrement();
+		}
+		if (!live)
+			unlink(node, search, finger);
+	}
+
+	/* Removes and returns the smallest key, or empty when none is left.
+	 * Claims the first live node on level 0, then unlinks it as remove()
+	 * does. Like the skip list queue of Lotan and Shavit this is only
+	 * quiescently consistent: a smaller key added while the walk passes
+	 * may be left for the next call.
+	 */
+	public OptionalInt pollFirst() {
+		Search search = searches.get();
+		Node node = liveFrom(succ(head, 0));
+		while (node != tail) {
+			if (delete(node, search, false))
+				return OptionalInt.of(node.key);
+			node = liveFrom(succ(node, 0));
+		}
+		return OptionalInt.empty();
+	}
+
+	/* Relaxed pollFirst(), after the SprayList of Alistarh et al.: a
+	 * random walk from level height down to level 0, taking up to jump
+	 * steps per level, lands among the first few jump * 2^height keys.
+	 * Concurrent callers thereby claim different nodes near the front
+	 * instead of all racing for the first. Falls back to pollFirst()
+	 * when the walk ends past the last live node.
+	 *
+	 * One call in clean is a plain pollFirst(), the cleaners of the
+	 * SprayList. The walk tends to land on and claim tall nodes, so
+	 * without them the front thins out at the upper levels, the jumps
+	 * carry further and the small keys left behind are never taken.
+	 */
+	OptionalInt pollNear(int height, int jump, int clean) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextInt(clean) == 0)
+			return pollFirst();
+		Node pred = head;
+		for (int level = Math.min(height, headLevel); level >= 0; level--) {
+			for (int steps = random.nextInt(jump + 1); steps > 0; steps--) {
+				Node next = succ(pred, level);
+				if (next == tail)
+					break;
+				pred = next;
+			}
+		}
+
+		Search search = searches.get();
+		Node node = liveFrom(pred == head ? succ(head, 0) : pred);
+		while (node != tail) {
+			if (delete(node, search, false))
+				return OptionalInt.of(node.key);
+			node = liveFrom(succ(node, 0));
+		}
+		return pollFirst();
+	}
+
+	private boolean locate(int key, Search search, int fromLevel, boolean finger) {
+		if (finger)
+			return findFrom(key, search.preds, search.succs, fromLevel);
+		return find(key, search.preds, search.succs, fromLevel);
+	}
+
+	/* Fills preds/succs with the nodes around the first node whose key
+	 * is >= key, snipping marked nodes on the way. Returns whether that
+	 * node holds key and is still live. A claimed node with the same key
+	 * may sit in succs[], add() then links the new node in front of it.
+	 * Starts at headLevel, or at fromLevel if a remove has lowered the
+	 * head below the tower being linked.
+	 */
+	private boolean find(int key, Node[] preds, Node[] succs, int fromLevel) {
+		return descend(key, preds, succs, head, Math.max(headLevel, fromLevel));
+	}
+
+	/* Finger search: same result as find(), but starts from the preds
+	 * left in the array by an earlier search of this thread. preds[level]
+	 * is a usable start if it is head, or if its key is < key and it is
+	 * not marked at level. Climbs from level 0 to the first usable pred
+	 * whose successor is >= key, at or above fromLevel so that preds and
+	 * succs get refilled for every level a new tower will be linked at,
+	 * then descends from there. Falls back to find() when no pred is
+	 * usable.
+	 */
+	private boolean findFrom(int key, Node[] preds, Node[] succs, int fromLevel) {
+		int top = headLevel;
+		int start = -1;
+		for (int level = 0; level <= top; level++) {
+			Node pred = preds[level];
+			if (pred == null)
+				break;
+			if (!usable(pred, key, level))
+				continue;
+			start = level;
+			if (level >= fromLevel) {
+				Node succ = (Node) NEXT.getVolatile(pred.next, level);
+				if (succ == tail || (succ != pred && succ.key >= key))
+					break;
+			}
+		}
+		if (start < fromLevel)
+			return find(key, preds, succs, fromLevel);
+		return descend(key, preds, succs, preds[start], start);
+	}
+
+	/* Searches again after a lost CAS, from the lowest pred of the
+	 * last search at or above fromLevel that is still usable, and from
+	 * head only when there is none
+	 */
+	private boolean relocate(int key, Search search, int fromLevel) {
+		Node[] preds = search.preds;
+		int level = resumeLevel(key, preds, fromLevel);
+		if (level < 0) {
+			headRestarts.increment();
+			return find(key, preds, search.succs, fromLevel);
+		}
+		localRestarts.increment();
+		return descend(key, preds, search.succs, preds[level], level);
+	}
+
+	/* Whether a descent towards key may start from pred at level */
+	private boolean usable(Node pred, int key, int level) {
+		return pred == head || (pred.key < key && NEXT.getVolatile(pred.next, level) != pred);
+	}
+
+	/* Lowest level at or above level whose pred is usable, or -1 */
+	private int resumeLevel(int key, Node[] preds, int level) {
+		for (int top = headLevel; level <= top; level++) {
+			Node pred = preds[level];
+			if (pred != null && usable(pred, key, level))
+				return level;
+		}
+		return -1;
+	}
+
+	/* Descends from pred at level to level 0, filling preds/succs below
+	 * and at level. pred must be usable. When a snip fails, or pred
+	 * turns out to be marked, the descent resumes from the lowest
+	 * usable pred at or above the current level rather than from head:
+	 * those above were filled on the way down and mostly still hold.
+	 */
+	private boolean descend(int key, Node[] preds, Node[] succs, Node pred, int level) {
+		int bottomLevel = 0;
+		Node curr = null;
+		Node succ = null;
+		while (true) {
+			levels: for (; level >= bottomLevel; level--) {
+				curr = (Node) NEXT.getVolatile(pred.next, level);
+				if (curr == pred)
+					break levels;
+				while (true) {
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+					while (succ == curr) {
+						succ = curr.frozen[level];
+						if (!NEXT.compareAndSet(pred.next, level, curr, succ))
+							break levels;
+						curr = succ;
+						succ = (Node) NEXT.getVolatile(curr.next, level);
+					}
+					if (curr != tail && curr.key < key) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			if (level < bottomLevel)
+				return curr != tail && curr.key == key && live(curr);
+
+			preds[level] = pred;
+			int from = resumeLevel(key, preds, level);
+			if (from < 0) {
+				headRestarts.increment();
+				pred = head;
+				level = headLevel;
+			} else {
+				localRestarts.increment();
+				pred = preds[from];
+				level = from;
+			}
+		}
+	}
+
+	public boolean contains(int key) {
+		if (fingers)
+			return locate(key, searches.get(), 0, true);
+		Node curr = seek(key);
+		return curr != tail && curr.key == key && live(curr);
+	}
+
+	/* Looks up every key, setting out[i] to whether keys[i] is present,
+	 * and returns how many are. Each answer is that of contains(), and
+	 * linearizable on its own.
+	 *
+	 * Keys are searched GROUP at a time, one hop of each search in turn,
+	 * so that the cache misses of independent searches overlap instead
+	 * of each search waiting on its own chain of loads. When a group is
+	 * sorted ascending its first key is searched alone, and the others
+	 * start from its path at the lowest level whose successor is not
+	 * below them, sharing the upper part of the descent.
+	 */
+	public int containsAll(int[] keys, boolean[] out) {
+		if (out.length < keys.length)
+			throw new IllegalArgumentException("out.length " + out.length + " < keys.length " + keys.length);
+		// NOTE: No update runs on this thread meanwhile, so the path of
+		// a sorted group can borrow preds and succs.
+		Search search = searches.get();
+		Node[] preds = search.cursors;
+		int[] levels = search.levels;
+		Node[] path = search.preds;
+		Node[] bounds = search.succs;
+		int found = 0;
+		for (int from = 0; from < keys.length; from += GROUP) {
+			int n = Math.min(GROUP, keys.length - from);
+			int top = headLevel;
+			int active = n;
+			boolean sorted = n > 1;
+			for (int i = from + 1; sorted && i < from + n; i++)
+				sorted = keys[i] >= keys[i - 1];
+
+			if (sorted) {
+				int key = keys[from];
+				Node pred = head;
+				for (int level = top; level >= 0; level--) {
+					Node curr = right(pred, level);
+					while (curr != tail && curr.key < key) {
+						pred = curr;
+						curr = right(pred, level);
+					}
+					path[level] = pred;
+					bounds[level] = curr;
+				}
+				Node curr = bounds[0];
+				out[from] = curr != tail && curr.key == key && live(curr);
+				levels[0] = -1;
+				active--;
+				for (int i = 1; i < n; i++) {
+					int level = 0;
+					while (level < top && bounds[level] != tail && bounds[level].key < keys[from + i])
+						level++;
+					preds[i] = path[level];
+					levels[i] = level;
+				}
+			} else {
+				for (int i = 0; i < n; i++) {
+					preds[i] = head;
+					levels[i] = top;
+				}
+			}
+
+			while (active > 0) {
+				for (int i = 0; i < n; i++) {
+					int level = levels[i];
+					if (level < 0)
+						continue;
+					int key = keys[from + i];
+					Node curr = right(preds[i], level);
+					if (curr != tail && curr.key < key) {
+						preds[i] = curr;
+					} else if (level > 0) {
+						levels[i] = level - 1;
+					} else {
+						out[from + i] = curr != tail && curr.key == key && live(curr);
+						levels[i] = -1;
+						active--;
+					}
+				}
+			}
+			for (int i = from; i < from + n; i++) {
+				if (out[i])
+					found++;
+			}
+		}
+		return found;
+	}
+
+	/* Number of keys, summed from the per-height counters without a
+	 * traversal. Exact while no update runs, otherwise it may be off
+	 * by the updates in flight during the call.
+	 */
+	public int size() {
+		long sum = 0;
+		for (LongAdder count : heights)
+			sum += count.sum();
+		return (int) Math.max(0, Math.min(sum, Integer.MAX_VALUE));
+	}
+
+	/* Whether level 0 holds no live node. Exact while no update runs,
+	 * like size(). The walk is not atomic, so with updates in flight it
+	 * may find no key although the set was never empty at any moment.
+	 *
+	 * Not O(1): the walk passes every claimed node still linked in
+	 * front of the first live one, as pollFirst() does. Removes unlink
+	 * what they claim before they return, so these are the removes in
+	 * flight and the keys of batches not yet released, and under heavy
+	 * pollFirst() traffic the front can hold one per thread.
+	 */
+	public boolean isEmpty() {
+		return liveFrom(succ(head, 0)) == tail;
+	}
+
+	/* Approximate number of keys whose tower reaches each level, from
+	 * 0 up to the current head level. Counted like size(), about
+	 * size() * p^level for random towers.
+	 */
+	public long[] levelSizes() {
+		int top = headLevel;
+		long[] sizes = new long[top + 1];
+		long sum = 0;
+		for (int level = MAX_LEVEL; level >= 0; level--) {
+			sum += heights[level].sum();
+			if (level <= top)
+				sizes[level] = Math.max(0, sum);
+		}
+		return sizes;
+	}
+
+	/* Searches that resumed below head after a lost CAS or snip */
+	public long localRestarts() {
+		return localRestarts.sum();
+	}
+
+	/* Searches that had to start over from head after one */
+	public long headRestarts() {
+		return headRestarts.sum();
+	}
+
+	/* Returns the smallest key, throws NoSuchElementException if empty */
+	public int first() {
+		Node node = liveFrom(succ(head, 0));
+		if (node == tail)
+			throw new NoSuchElementException();
+		return node.key;
+	}
+
+	/* Returns the largest key, throws NoSuchElementException if empty */
+	public int last() {
+		Node node = liveBefore((long) Integer.MAX_VALUE + 1);
+		if (node == head)
+			throw new NoSuchElementException();
+		return node.key;
+	}
+
+	/* Smallest key >= key */
+	public OptionalInt ceiling(int key) {
+		Node node = liveFrom(seek(key));
+		return node == tail ? OptionalInt.empty() : OptionalInt.of(node.key);
+	}
+
+	/* Smallest key > key */
+	public OptionalInt higher(int key) {
+		if (key == Integer.MAX_VALUE)
+			return OptionalInt.empty();
+		return ceiling(key + 1);
+	}
+
+	/* Largest key <= key */
+	public OptionalInt floor(int key) {
+		Node node = liveBefore((long) key + 1);
+		return node == head ? OptionalInt.empty() : OptionalInt.of(node.key);
+	}
+
+	/* Largest key < key */
+	public OptionalInt lower(int key) {
+		Node node = liveBefore(key);
+		return node == head ? OptionalInt.empty() : OptionalInt.of(node.key);
+	}
+
+	/* Calls action on every key in [from, to) in ascending order.
+	 * One descent to from, then a walk along level 0.
+	 */
+	public void forEachInRange(int from, int to, IntConsumer action) {
+		if (from >= to)
+			return;
+		PrimitiveIterator.OfInt it = new Iter(seek(from), to);
+		while (it.hasNext())
+			action.accept(it.nextInt());
+	}
+
+	public void forEach(IntConsumer action) {
+		PrimitiveIterator.OfInt it = iterator();
+		while (it.hasNext())
+			action.accept(it.nextInt());
+	}
+
+	/* Weakly consistent ascending iterator, see Iter */
+	public PrimitiveIterator.OfInt iterator() {
+		return new Iter(succ(head, 0), (long) Integer.MAX_VALUE + 1);
+	}
+
+	/* Same as iterator(), starting at the first key >= from */
+	public PrimitiveIterator.OfInt tailIterator(int from) {
+		return new Iter(seek(from), (long) Integer.MAX_VALUE + 1);
+	}
+
+	/* View of the keys in [from, to), backed by this list */
+	public SubSet subSet(int from, int to) {
+		if (from > to)
+			throw new IllegalArgumentException("from > to: " + from + " > " + to);
+		return new SubSet(from, to);
+	}
+
+	/* First node at level 0 whose key is >= key, claimed or not.
+	 * Wait-free, the same walk as the original contains().
+	 */
+	private Node seek(int key) {
+		int bottomLevel = 0;
+		Node pred = head;
+		Node curr = null;
+		Node succ = null;
+		for (int level = headLevel; level >= bottomLevel; level--) {
+			curr = succ(pred, level);
+			while (true) {
+				succ = (Node) NEXT.getVolatile(curr.next, level);
+				while (succ == curr) {
+					curr = curr.frozen[level];
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+				}
+				if (curr != tail && curr.key < key) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+		}
+		return curr;
+	}
+
+	/* First node after pred at level that is not marked there, or tail.
+	 * One hop of seek().
+	 */
+	private Node right(Node pred, int level) {
+		Node curr = succ(pred, level);
+		while (curr != tail && NEXT.getVolatile(curr.next, level) == curr)
+			curr = curr.frozen[level];
+		return curr;
+	}
+
+	/* First live node at or after node on level 0, or tail */
+	private Node liveFrom(Node node) {
+		while (node != tail && !live(node))
+			node = succ(node, 0);
+		return node;
+	}
+
+	/* Last live node whose key is < bound, or head. The bound is a long
+	 * so that MAX_VALUE + 1 can stand for "no upper bound". When the
+	 * node found has been claimed meanwhile, search again below it.
+	 */
+	private Node liveBefore(long bound) {
+		while (true) {
+			Node pred = head;
+			for (int level = headLevel; level >= 0; level--) {
+				Node curr = succ(pred, level);
+				while (true) {
+					Node succ = (Node) NEXT.getVolatile(curr.next, level);
+					while (succ == curr) {
+						curr = curr.frozen[level];
+						succ = (Node) NEXT.getVolatile(curr.next, level);
+					}
+					if (curr != tail && curr.key < bound) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+			}
+			if (pred == head || live(pred))
+				return pred;
+			bound = pred.key;
+		}
+	}
+
+	/* Walks level 0 from a start node up to an exclusive long bound.
+	 * Claimed nodes are skipped, and keys are returned strictly
+	 * ascending. Weakly consistent: every key present for the whole
+	 * walk is returned, keys added or removed concurrently may or may
+	 * not be.
+	 */
+	private final class Iter implements PrimitiveIterator.OfInt {
+		private final long bound;
+		private Node next;
+		private long last = (long) Integer.MIN_VALUE - 1;
+		private boolean canRemove;
+
+		Iter(Node start, long bound) {
+			this.bound = bound;
+			this.next = advance(start);
+		}
+
+		private Node advance(Node node) {
+			while (node != tail && (!live(node) || node.key <= last))
+				node = succ(node, 0);
+			return node != tail && node.key < bound ? node : null;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public int nextInt() {
+			Node node = next;
+			if (node == null)
+				throw new NoSuchElementException();
+			last = node.key;
+			next = advance(succ(node, 0));
+			canRemove = true;
+			return node.key;
+		}
+
+		public void remove() {
+			if (!canRemove)
+				throw new IllegalStateException();
+			canRemove = false;
+			IntSkipList.this.remove((int) last);
+		}
+	}
+
+	/* Range view returned by subSet(). Keys outside [from, to) are
+	 * absent from the view, adding one is an IllegalArgumentException
+	 * as with java.util.TreeSet.subSet().
+	 */
+	public final class SubSet {
+		private final int from, to;
+
+		SubSet(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		private boolean inRange(int key) {
+			return key >= from && key < to;
+		}
+
+		public boolean contains(int key) {
+			return inRange(key) && IntSkipList.this.contains(key);
+		}
+
+		public boolean add(int key) {
+			if (!inRange(key))
+				throw new IllegalArgumentException("key out of range: " + key);
+			return IntSkipList.this.add(key);
+		}
+
+		public boolean remove(int key) {
+			return inRange(key) && IntSkipList.this.remove(key);
+		}
+
+		public boolean isEmpty() {
+			return !iterator().hasNext();
+		}
+
+		public int first() {
+			OptionalInt key = ceiling(from);
+			if (!key.isPresent() || key.getAsInt() >= to)
+				throw new NoSuchElementException();
+			return key.getAsInt();
+		}
+
+		public int last() {
+			OptionalInt key = lower(to);
+			if (!key.isPresent() || key.getAsInt() < from)
+				throw new NoSuchElementException();
+			return key.getAsInt();
+		}
+
+		public void forEach(IntConsumer action) {
+			forEachInRange(from, to, action);
+		}
+
+		public PrimitiveIterator.OfInt iterator() {
+			return new Iter(from < to ? seek(from) : tail, to);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package primitive;
+
+import java.util.OptionalInt;
+
+/* Min-priority queue of distinct int keys over IntSkipList, for use as
+ * a scheduler queue. removeMin() logically deletes the first live node
+ * by claiming it and then unlinks it, see IntSkipList.pollFirst().
+ *
+ * With a spread above one the queue is relaxed: removeMin() sprays
+ * over the front of the list (IntSkipList.pollNear()) and returns one
+ * of roughly the first spread * log2(spread) keys rather than the
+ * smallest, so that about spread concurrent callers rarely collide on
+ * the same node.
+ */
+public final class IntSkipListPriorityQueue {
+	private final IntSkipList list;
+
+	/* Spray parameters, height < 0 for an exact queue */
+	private final int height;
+	private final int jump;
+	private final int clean;
+
+	public IntSkipListPriorityQueue() {
+		this(new IntSkipList(), 1);
+	}
+
+	/* spread is the number of threads expected to call removeMin() at
+	 * once, 1 or less for an exact queue
+	 */
+	public IntSkipListPriorityQueue(int spread) {
+		this(new IntSkipList(), spread);
+	}
+
+	/* Queue over the keys of list, which must not be updated directly
+	 * while the queue is in use
+	 */
+	public IntSkipListPriorityQueue(IntSkipList list, int spread) {
+		this.list = list;
+		if (spread <= 1) {
+			height = -1;
+			jump = 0;
+			clean = 1;
+		} else {
+			// NOTE: The SprayList starts at log p + K and jumps up to
+			// M log^3 p per level. Starting one level lower with jumps
+			// of log p keeps the landing zone at about p log p keys.
+			// One removeMin() in p takes the exact minimum.
+			int log = 32 - Integer.numberOfLeadingZeros(spread - 1);
+			height = log - 1;
+			jump = log;
+			clean = spread;
+		}
+	}
+
+	/* Returns false if key is already queued */
+	public boolean insert(int key) {
+		return list.add(key);
+	}
+
+	/* Smallest key, or empty */
+	public OptionalInt peekMin() {
+		return list.ceiling(Integer.MIN_VALUE);
+	}
+
+	/* Removes and returns the smallest key, or in relaxed mode one near
+	 * it; empty when the queue is
+	 */
+	public OptionalInt removeMin() {
+		return height < 0 ? list.pollFirst() : list.pollNear(height, jump, clean);
+	}
+
+	public boolean isRelaxed() {
+		return height >= 0;
+	}
+
+	public int size() {
+		return list.size();
+	}
+
+	public boolean isEmpty() {
+		return list.isEmpty();
+	}
+}
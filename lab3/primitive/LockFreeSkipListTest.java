@@ -0,0 +1,658 @@
+package primitive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import common.Config;
+import map.IntCounterMap;
+
+public class LockFreeSkipListTest {
+
+    /* Longest run of contains issued as one containsAll in multiget mode */
+    static final int MULTIGET = 64;
+
+    static class Task implements Callable<Boolean> {
+        int id;
+        int[] ops;
+        int[] values;
+
+        // Keys of the run of contains starting at each index, multiget mode only
+        int[][] runs;
+        boolean[] found;
+
+        // Invocation and response times and results, kept in validate mode
+        long[] starts, ends;
+        boolean[] results;
+
+        IntSet skiplist;
+
+        // Set in move mode only, see update()
+        IntSkipList list;
+        long delta, moves, moved, batches, committed;
+
+        public Task(int id, IntSet skiplist, Config config) {
+            ops = new int[config.opsPerThread];
+            values = new int[config.opsPerThread];
+            if (config.hasMode("validate")) {
+                starts = new long[config.opsPerThread];
+                ends = new long[config.opsPerThread];
+                results = new boolean[config.opsPerThread];
+            }
+            int[] stats = new int[3];
+            this.skiplist = skiplist;
+            this.id = id;
+            if (config.hasMode("move") && skiplist instanceof IntSkipList)
+                list = (IntSkipList) skiplist;
+
+            int ndist = config.probs.length;
+            outer: for (int i = 0; i < config.opsPerThread; i += 1) {
+                double opsSample = config.rng.nextDouble();
+                values[i] = config.testDist.getSample();
+
+                for (int j = 0; j < ndist - 1; j += 1) {
+                    if (opsSample < config.probs[j]) {
+                        ops[i] = j;
+                        stats[j] += 1;
+                        continue outer;
+                    }
+                }
+
+                ops[i] = ndist - 1;
+                stats[ndist - 1] += 1;
+            }
+
+            if (config.hasMode("multiget")) {
+                runs = new int[config.opsPerThread][];
+                found = new boolean[MULTIGET];
+                for (int i = 0; i < ops.length; ) {
+                    int j = i;
+                    while (j < ops.length && j - i < MULTIGET && ops[j] == 0)
+                        j += 1;
+                    if (j > i)
+                        runs[i] = Arrays.copyOfRange(values, i, j);
+                    i = Math.max(j, i + 1);
+                }
+            }
+
+            System.out.printf("%2d: %7d contains, %7d add, %7d remove\n",
+                    id, stats[0], stats[1], stats[2]);
+        }
+
+        public Boolean call() {
+            if (results != null)
+                return record();
+            for (int i = 0; i < ops.length; i += 1) {
+                if (runs != null && runs[i] != null) {
+                    skiplist.containsAll(runs[i], found);
+                    i += runs[i].length - 1;
+                } else if (ops[i] == 0)
+                    skiplist.contains(values[i]);
+                else if (list != null)
+                    update(i);
+                else if (ops[i] == 1)
+                    skiplist.add(values[i]);
+                else if (ops[i] == 2)
+                    skiplist.remove(values[i]);
+                else
+                    throw new Error("Unexpected operation " + ops[i]);
+            }
+
+            return true;
+        }
+
+        /* Move mode: even tasks move a key to the next task value and
+         * back, which never changes the key count. Odd tasks race them
+         * with single adds and removes and, every fourth update, with a
+         * batch of three keys. delta counts what succeeded.
+         */
+        void update(int i) {
+            int key = values[i];
+            int other = values[(i + 1) % values.length];
+            int third = values[(i + 2) % values.length];
+            if (id % 2 == 0) {
+                moves += 1;
+                if (ops[i] == 1 ? list.move(key, other) : list.move(other, key))
+                    moved += 1;
+            } else if (i % 4 == 0 && key != other && key != third && other != third) {
+                int[] pair = { key, other };
+                int[] single = { third };
+                int[] adds = ops[i] == 1 ? pair : single;
+                int[] removes = ops[i] == 1 ? single : pair;
+                batches += 1;
+                if (list.atomicBatch(adds, removes)) {
+                    committed += 1;
+                    delta += adds.length - removes.length;
+                }
+            } else if (ops[i] == 1) {
+                if (list.add(key))
+                    delta += 1;
+            } else if (list.remove(key)) {
+                delta -= 1;
+            }
+        }
+
+        Boolean record() {
+            for (int i = 0; i < ops.length; i += 1) {
+                starts[i] = System.nanoTime();
+                if (ops[i] == 0)
+                    results[i] = skiplist.contains(values[i]);
+                else if (ops[i] == 1)
+                    results[i] = skiplist.add(values[i]);
+                else if (ops[i] == 2)
+                    results[i] = skiplist.remove(values[i]);
+                else
+                    throw new Error("Unexpected operation " + ops[i]);
+                ends[i] = System.nanoTime();
+            }
+
+            return true;
+        }
+    }
+
+    /* Runs the harness operations against a queue: add inserts the key,
+     * remove takes the minimum and contains peeks at it
+     */
+    static IntSet asSet(IntSkipListPriorityQueue queue) {
+        return new IntSet() {
+            public boolean add(int key) {
+                return queue.insert(key);
+            }
+
+            public boolean remove(int key) {
+                return queue.removeMin().isPresent();
+            }
+
+            public boolean contains(int key) {
+                return queue.peekMin().isPresent();
+            }
+
+            public int size() {
+                return queue.size();
+            }
+        };
+    }
+
+    /* Runs the harness operations against counters: add increments the
+     * key's count, remove decrements it and contains reads it. size()
+     * looks up every key of [min, max].
+     */
+    static IntSet asSet(IntCounterMap counters, int min, int max) {
+        return new IntSet() {
+            public boolean add(int key) {
+                counters.incrementAndGet(key);
+                return true;
+            }
+
+            public boolean remove(int key) {
+                counters.decrementAndGet(key);
+                return true;
+            }
+
+            public boolean contains(int key) {
+                return counters.count(key) != 0;
+            }
+
+            public int size() {
+                int size = 0;
+                for (int key = min; key <= max; key += 1)
+                    if (counters.containsKey(key))
+                        size += 1;
+                return size;
+            }
+        };
+    }
+
+    /* Every increment and decrement succeeds, so each count must equal
+     * the prepared items of its key plus its adds minus its removes
+     */
+    static void checkCounts(IntCounterMap counters, List<Task> tasks, int[] items, Config config) {
+        long[] expected = new long[config.max - config.min + 1];
+        for (int item : items)
+            expected[item - config.min] += 1;
+        for (Task task : tasks) {
+            for (int i = 0; i < task.ops.length; i += 1) {
+                if (task.ops[i] == 1)
+                    expected[task.values[i] - config.min] += 1;
+                else if (task.ops[i] == 2)
+                    expected[task.values[i] - config.min] -= 1;
+            }
+        }
+        int wrong = 0;
+        for (int k = 0; k < expected.length; k += 1)
+            if (counters.count(k + config.min) != expected[k])
+                wrong += 1;
+        System.out.println("Counts: " + expected.length + " keys checked, " + wrong + " wrong"
+                + (wrong == 0 ? "" : ", the counts are NOT exact"));
+    }
+
+    /* Moves never change the key count, so what level 0 holds must
+     * match the initial size plus the adds, removes and batches that
+     * succeeded
+     */
+    static void checkTokens(IntSkipList list, List<Task> tasks, int initialSize) {
+        long moves = 0, moved = 0, batches = 0, committed = 0;
+        long expected = initialSize;
+        for (Task task : tasks) {
+            moves += task.moves;
+            moved += task.moved;
+            batches += task.batches;
+            committed += task.committed;
+            expected += task.delta;
+        }
+        long found = 0;
+        PrimitiveIterator.OfInt it = list.iterator();
+        while (it.hasNext()) {
+            it.nextInt();
+            found += 1;
+        }
+        System.out.printf("Moves: %d of %d succeeded, batches: %d of %d committed\n", moved, moves, committed, batches);
+        System.out.println("Keys: " + expected + " expected, " + found + " on level 0, size() " + list.size()
+                + (found == expected && list.size() == expected ? "" : ", tokens NOT conserved"));
+    }
+
+    /* fromSorted() must reject keys out of order anywhere, also after a
+     * duplicate, where it switches to a deduplicated copy
+     */
+    static void checkFromSorted() {
+        int[][] unsorted = { { 1, 1, 5, 2 }, { 3, 1, 1 }, { 0, 2, 2, 7, 7, 6 } };
+        int rejected = 0;
+        for (int[] keys : unsorted) {
+            try {
+                IntSkipList.fromSorted(keys);
+            } catch (IllegalArgumentException e) {
+                rejected += 1;
+            }
+        }
+        IntSkipList deduplicated = IntSkipList.fromSorted(new int[] { 1, 1, 2, 5, 5 });
+        boolean kept = deduplicated.size() == 3 && deduplicated.contains(2) && deduplicated.contains(5);
+        System.out.println("Bulk load: " + rejected + " of " + unsorted.length + " unsorted arrays rejected"
+                + (rejected == unsorted.length && kept ? "" : ", fromSorted() is NOT checking its input"));
+    }
+
+    /* Writes list to a snapshot and loads it back, as a restart would */
+    static IntSkipList restart(IntSkipList list, boolean fingers) {
+        try {
+            Path file = Files.createTempFile("skiplist", ".snapshot");
+            try {
+                long start = System.nanoTime();
+                list.snapshotTo(file);
+                long written = System.nanoTime();
+                IntSkipList loaded = IntSkipList.loadFrom(file, 0.5, fingers);
+                long loadedAt = System.nanoTime();
+                System.out.printf("Snapshot: %d bytes, written in %d ms, loaded in %d ms\n",
+                        Files.size(file), (written - start) / 1000000, (loadedAt - written) / 1000000);
+                return loaded;
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        Config config = new Config(args);
+        config.print();
+
+        int[] items = new int[config.nitems];
+        for (int i = 0; i < config.nitems; i += 1) {
+            items[i] = config.prepDist.getSample();
+        }
+
+        IntSet skiplist;
+        NoHotSpotSkipList nohotspot = null;
+        ShardedSkipList sharded = null;
+        RecyclingIntSkipList recycling = null;
+        OffHeapIntSkipList offheap = null;
+        long offheapFilled = 0;
+        FlatCombiningIntSkipList combining = null;
+        UnrolledIntSkipList unrolled = null;
+        BloomIntSkipList bloom = null;
+        IntSkipList plain = null;
+        EliminatingIntSkipList eliminating = null;
+        RankedIntSkipList ranked = null;
+        IntCounterMap counters = null;
+        if (config.hasMode("counter")) {
+            counters = new IntCounterMap();
+            for (int item : items)
+                counters.incrementAndGet(item);
+            skiplist = asSet(counters, config.min, config.max);
+        } else if (config.hasMode("pq")) {
+            IntSkipListPriorityQueue queue = new IntSkipListPriorityQueue(IntSkipList.fromUnsorted(items),
+                    config.hasMode("spray") ? config.nthreads : 1);
+            skiplist = asSet(queue);
+        } else if (config.hasMode("eliminate")) {
+            eliminating = new EliminatingIntSkipList(IntSkipList.fromUnsorted(items), 64, 64);
+            skiplist = eliminating;
+        } else if (config.hasMode("ranked")) {
+            ranked = new RankedIntSkipList(IntSkipList.fromUnsorted(items), config.min, config.max, 1 << 16);
+            skiplist = ranked;
+        } else if (config.hasMode("bloom")) {
+            bloom = new BloomIntSkipList(IntSkipList.fromUnsorted(items), config.nitems, 0.01);
+            skiplist = bloom;
+        } else if (config.hasMode("unrolled")) {
+            unrolled = new UnrolledIntSkipList();
+            for (int item : items)
+                unrolled.add(item);
+            skiplist = unrolled;
+        } else if (config.hasMode("fc")) {
+            combining = new FlatCombiningIntSkipList(IntSkipList.fromUnsorted(items));
+            skiplist = combining;
+        } else if (config.hasMode("offheap")) {
+            offheap = new OffHeapIntSkipList();
+            for (int item : items)
+                offheap.add(item);
+            skiplist = offheap;
+            offheapFilled = offheap.bytesUsed();
+        } else if (config.hasMode("recycle")) {
+            recycling = new RecyclingIntSkipList();
+            for (int item : items)
+                recycling.add(item);
+            skiplist = recycling;
+        } else if (config.hasMode("sharded")) {
+            sharded = ShardedSkipList.fromUnsorted(config.min, config.max, config.nthreads, items);
+            skiplist = sharded;
+        } else if (config.hasMode("nohotspot")) {
+            nohotspot = NoHotSpotSkipList.fromUnsorted(items);
+            nohotspot.start();
+            skiplist = nohotspot;
+        } else {
+            IntSkipList list = IntSkipList.fromUnsorted(items, 0.5, config.hasMode("finger"));
+            if (config.hasMode("snapshot"))
+                list = restart(list, config.hasMode("finger"));
+            plain = list;
+            skiplist = list;
+        }
+
+        System.out.printf("-1: %7d items\n", skiplist.size());
+        int initialSize = skiplist.size();
+
+        List<Future<Boolean>> futures = null;
+        ArrayList<Task> tasks = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(config.nthreads);
+
+        for (int i = 0; i < config.nthreads; i += 1) {
+            tasks.add(new Task(i, skiplist, config));
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            futures = pool.invokeAll(tasks.subList(0, config.nthreads - 1));
+            tasks.get(config.nthreads - 1).call();
+            for (Future<Boolean> f : futures)
+                f.get();
+        } catch (Exception e) {
+        }
+
+        System.out.println();
+        System.out.println("Time elapsed: " + (System.nanoTime() - start) / 1000000 + " ms");
+        pool.shutdownNow();
+
+        if (config.hasMode("validate")) {
+            boolean[] initial = new boolean[config.max - config.min + 1];
+            for (int item : items)
+                initial[item - config.min] = true;
+            if (LockFreeSkipListValidator.isLinearizable(tasks, initial, config.min)) {
+                System.out.println("The history is linearizable");
+            } else {
+                System.out.println("The history is NOT linearizable");
+            }
+        }
+        if (counters != null)
+            checkCounts(counters, tasks, items, config);
+        if (nohotspot != null) {
+            nohotspot.close();
+            System.out.println("Maintenance passes: " + nohotspot.passes());
+        }
+        if (sharded != null) {
+            System.out.println("Shard sizes: " + Arrays.toString(sharded.shardSizes()));
+            System.out.println("Rebalances: " + sharded.rebalances());
+        }
+        if (recycling != null) {
+            System.out.println("Nodes allocated: " + recycling.allocated() + ", reused: " + recycling.reused()
+                    + ", through the shared pool: " + recycling.pooled());
+        }
+        if (offheap != null) {
+            // Under churn the arena should grow with the keys, not with the updates
+            System.out.printf("Off-heap bytes: %d after filling, %d at the end (+%.1f%%), %.1f per key, %d nodes reused\n",
+                    offheapFilled, offheap.bytesUsed(),
+                    100.0 * (offheap.bytesUsed() - offheapFilled) / Math.max(1, offheapFilled),
+                    (double) offheap.bytesUsed() / Math.max(1, offheap.size()), offheap.reused());
+        }
+        if (unrolled != null) {
+            System.out.printf("Chunks: %d, %.1f keys per chunk\n",
+                    unrolled.chunks(), (double) unrolled.size() / Math.max(1, unrolled.chunks()));
+        }
+        if (bloom != null) {
+            System.out.printf("Bloom filter: %d bytes, %d hashes, %.2f%% false positives (%d of %d absent lookups)\n",
+                    bloom.filterBytes(), bloom.hashes(), 100 * bloom.falsePositiveRate(),
+                    bloom.falsePositives(), bloom.falsePositives() + bloom.ruledOut());
+        }
+        if (plain != null) {
+            checkFromSorted();
+            System.out.println("Restarts after a lost CAS: " + plain.localRestarts() + " local, "
+                    + plain.headRestarts() + " from head");
+            // The head should follow the element count, not the number of updates run
+            if (config.hasMode("move") && !config.hasMode("validate"))
+                checkTokens(plain, tasks, initialSize);
+            int levels = plain.levelSizes().length;
+            int expected = 2 * (32 - Integer.numberOfLeadingZeros(plain.size())) + 2;
+            System.out.println("Head levels: " + levels + " for " + plain.size() + " keys, at most " + expected
+                    + " expected" + (levels > expected ? ", the head has NOT followed the size" : ""));
+        }
+        if (eliminating != null) {
+            System.out.printf("Eliminated updates: %d, %.2f%% of adds and removes\n",
+                    eliminating.eliminated(), 100 * eliminating.eliminationRate());
+        }
+        if (ranked != null) {
+            OptionalInt median = ranked.select(ranked.size() / 2);
+            if (median.isPresent())
+                System.out.printf("Median key: %d, %d keys below it, %d buckets, %d rebuilds\n", median.getAsInt(),
+                        ranked.countInRange(config.min, median.getAsInt()), ranked.buckets(), ranked.rebuilds());
+        }
+        if (combining != null) {
+            System.out.printf("Combined batches: %d, %.1f requests per batch\n",
+                    combining.batches(), (double) combining.requests() / Math.max(1, combining.batches()));
+        }
+    }
+
+}
+
+/* Checks a recorded history against the sequential set, key by key: a
+ * set history is linearizable iff every per-key history is. Unlike the
+ * record books of the other packages, operations are timed from the
+ * outside, so this works for every IntSet: an operation took effect
+ * somewhere between its invocation and response, and the search below
+ * (Wing and Gong) looks for an order of effects consistent with both
+ * real time and the results returned.
+ */
+class LockFreeSkipListValidator {
+
+    /* Search steps spent on one key before giving up on it */
+    static final int BUDGET = 1 << 20;
+
+    static final int LINEARIZABLE = 0, VIOLATION = 1, UNDECIDED = 2;
+
+    public static boolean isLinearizable(List<LockFreeSkipListTest.Task> tasks, boolean[] initial, int min) {
+        int[] offsets = new int[initial.length + 1];
+        for (LockFreeSkipListTest.Task task : tasks)
+            for (int value : task.values)
+                offsets[value - min + 1] += 1;
+        for (int k = 0; k < initial.length; k += 1)
+            offsets[k + 1] += offsets[k];
+
+        int total = offsets[initial.length];
+        long[] starts = new long[total];
+        long[] ends = new long[total];
+        byte[] ops = new byte[total];
+        boolean[] results = new boolean[total];
+        int[] fill = Arrays.copyOf(offsets, initial.length);
+        for (LockFreeSkipListTest.Task task : tasks) {
+            for (int i = 0; i < task.ops.length; i += 1) {
+                int at = fill[task.values[i] - min]++;
+                starts[at] = task.starts[i];
+                ends[at] = task.ends[i];
+                ops[at] = (byte) task.ops[i];
+                results[at] = task.results[i];
+            }
+        }
+
+        int violations = 0;
+        int undecided = 0;
+        for (int k = 0; k < initial.length; k += 1) {
+            int from = offsets[k], to = offsets[k + 1];
+            if (from == to)
+                continue;
+            int verdict = check(starts, ends, ops, results, from, to, initial[k]);
+            if (verdict == VIOLATION) {
+                if (violations == 0)
+                    System.out.println("First violation at key " + (k + min) + ", " + (to - from) + " operations");
+                violations += 1;
+            } else if (verdict == UNDECIDED) {
+                undecided += 1;
+            }
+        }
+
+        System.out.println();
+        System.out.println("Total ops: " + total);
+        System.out.println("" + violations + " keys violate sequential spec.");
+        System.out.println("" + undecided + " keys were too concurrent to decide.");
+        System.out.println();
+
+        return violations == 0;
+    }
+
+    /* State of the search: which operations from first on are done, and
+     * whether the key is present. Everything before first is done.
+     */
+    static final class Frontier {
+        final int first;
+        final boolean present;
+        final long[] done;
+
+        Frontier(boolean[] done, int first, int last, boolean present) {
+            this.first = first;
+            this.present = present;
+            while (last > first && !done[last - 1])
+                last -= 1;
+            this.done = new long[(last - first + 63) >>> 6];
+            for (int j = first; j < last; j += 1)
+                if (done[j])
+                    this.done[(j - first) >>> 6] |= 1L << (j - first);
+        }
+
+        public boolean equals(Object o) {
+            Frontier f = (Frontier) o;
+            return first == f.first && present == f.present && Arrays.equals(done, f.done);
+        }
+
+        public int hashCode() {
+            return (first * 31 + (present ? 1 : 0)) * 31 + Arrays.hashCode(done);
+        }
+    }
+
+    /* Operations [from, to) of one key, depth-first over the orders
+     * real time allows, remembering states that led nowhere
+     */
+    static int check(long[] starts, long[] ends, byte[] ops, boolean[] results, int from, int to, boolean initial) {
+        int n = to - from;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1)
+            order[i] = from + i;
+        Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+
+        long[] s = new long[n], e = new long[n];
+        byte[] op = new byte[n];
+        boolean[] r = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            s[i] = starts[order[i]];
+            e[i] = ends[order[i]];
+            op[i] = ops[order[i]];
+            r[i] = results[order[i]];
+        }
+
+        boolean[] done = new boolean[n];
+        int[] chosen = new int[n];
+        int[] cursor = new int[n + 1];
+        boolean[] present = new boolean[n + 1];
+        HashSet<Frontier> failed = new HashSet<>();
+        present[0] = initial;
+        int depth = 0;
+        int first = 0;
+        int steps = 0;
+        while (depth < n) {
+            if (++steps > BUDGET)
+                return UNDECIDED;
+
+            // NOTE: Only operations invoked before the earliest pending
+            // response can take effect next.
+            long minEnd = Long.MAX_VALUE;
+            int last = first;
+            for (; last < n && s[last] <= minEnd; last += 1)
+                if (!done[last])
+                    minEnd = Math.min(minEnd, e[last]);
+
+            int next = -1;
+            for (int j = Math.max(first, cursor[depth]); j < last; j += 1) {
+                if (done[j] || s[j] > minEnd || before(op[j], r[j]) != present[depth])
+                    continue;
+                done[j] = true;
+                boolean after = after(op[j], present[depth]);
+                int f = first == j ? advance(done, first) : first;
+                if (failed.contains(new Frontier(done, f, Math.max(last, f), after))) {
+                    done[j] = false;
+                    continue;
+                }
+                next = j;
+                present[depth + 1] = after;
+                first = f;
+                break;
+            }
+
+            if (next >= 0) {
+                cursor[depth] = next + 1;
+                chosen[depth] = next;
+                depth += 1;
+                cursor[depth] = 0;
+                continue;
+            }
+
+            failed.add(new Frontier(done, first, Math.max(last, first), present[depth]));
+            if (depth == 0)
+                return VIOLATION;
+            depth -= 1;
+            done[chosen[depth]] = false;
+            first = Math.min(first, chosen[depth]);
+        }
+        return LINEARIZABLE;
+    }
+
+    static int advance(boolean[] done, int first) {
+        while (first < done.length && done[first])
+            first += 1;
+        return first;
+    }
+
+    /* Whether the key must be present for op to return result */
+    static boolean before(byte op, boolean result) {
+        return op == 1 ? !result : result;
+    }
+
+    /* Whether the key is present after op */
+    static boolean after(byte op, boolean present) {
+        return op == 0 ? present : op == 1;
+    }
+}
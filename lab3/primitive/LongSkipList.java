@@ -0,0 +1,345 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.LevelGenerator;
+
+/* Lock-free skip list set specialised for long keys.
+ * Same algorithm as original.LockFreeSkipList, but the key is
+ * the long itself, so no Long is boxed and no hashCode() is
+ * called on the hot path. The tail sentinel is compared by
+ * reference, so every long including MAX_VALUE is a valid key.
+ *
+ * Links are plain Node references updated through a VarHandle.
+ * A level is marked by pointing next[level] at the node itself,
+ * the successor it had is kept in frozen[level]. Only the thread
+ * that claimed the node writes frozen[], so the mark and the
+ * pointer live in a single CAS-able field without allocating an
+ * AtomicMarkableReference pair per link or per CAS.
+ */
+public final class LongSkipList {
+	/* Number of levels, enough for 2^31 keys at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability */
+	private static final double P = 0.5;
+
+	private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+	private static final VarHandle CLAIMED;
+	private static final VarHandle HEAD_LEVEL;
+
+	static {
+		try {
+			CLAIMED = MethodHandles.lookup().findVarHandle(Node.class, "claimed", int.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(LongSkipList.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Node head = new Node(Long.MIN_VALUE, MAX_LEVEL);
+	private final Node tail = new Node(Long.MAX_VALUE, MAX_LEVEL);
+
+	/* Per-thread preds/succs, reused by every add and remove */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+	private final LevelGenerator levels;
+
+	/* Highest level in use, see IntSkipList.headLevel */
+	private volatile int headLevel = 0;
+
+	/* Towers the top level needs before a level is opened above it */
+	private final int fanout;
+
+	/* Live keys by tower height, updated where add() and remove()
+	 * linearize. LongAdder spreads updates over per-thread cells once
+	 * it sees contention, so no operation CASes a shared counter.
+	 */
+	private final LongAdder[] heights = new LongAdder[MAX_LEVEL + 1];
+
+	public LongSkipList() {
+		this(P);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public LongSkipList(double p) {
+		levels = new LevelGenerator(MAX_LEVEL, p);
+		fanout = Math.max(2, (int) Math.round(1 / p));
+		for (int i = 0; i < head.next.length; i++) {
+			head.next[i] = tail;
+			heights[i] = new LongAdder();
+		}
+	}
+
+	private static final class Node {
+		final long key;
+		final Node[] next;
+		final Node[] frozen;
+		private final int topLevel;
+
+		/* 0 while live, 1 once a remove has claimed the node */
+		volatile int claimed;
+
+		public Node(long key, int height) {
+			this.key = key;
+			next = new Node[height + 1];
+			frozen = new Node[height + 1];
+			topLevel = height;
+		}
+	}
+
+	private static final class Search {
+		final Node[] preds = new Node[MAX_LEVEL + 1];
+		final Node[] succs = new Node[MAX_LEVEL + 1];
+	}
+
+	/* Same as IntSkipList.randomLevel(), only called once an insert
+	 * is due
+	 */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	/* Whether level holds at least fanout unmarked towers */
+	private boolean crowded(int level) {
+		Node node = succ(head, level);
+		for (int n = 0; n < fanout; n++) {
+			while (node != tail && NEXT.getVolatile(node.next, level) == node)
+				node = node.frozen[level];
+			if (node == tail)
+				return false;
+			node = succ(node, level);
+		}
+		return true;
+	}
+
+	/* Same as IntSkipList.shrinkHead() */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			Node node = succ(head, current);
+			while (node != tail && NEXT.getVolatile(node.next, current) == node)
+				node = node.frozen[current];
+			if (node != tail || !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	/* Successor of node at level, whether or not the level is marked. */
+	private static Node succ(Node node, int level) {
+		Node succ = (Node) NEXT.getVolatile(node.next, level);
+		return succ == node ? node.frozen[level] : succ;
+	}
+
+	/* Marks the node at level. Only called by the thread that claimed it. */
+	private static void mark(Node node, int level) {
+		while (true) {
+			Node succ = (Node) NEXT.getVolatile(node.next, level);
+			if (succ == node)
+				return;
+			node.frozen[level] = succ;
+			if (NEXT.compareAndSet(node.next, level, succ, node))
+				return;
+		}
+	}
+
+	public boolean add(long key) {
+		int topLevel = -1;
+		int bottomLevel = 0;
+		Search search = searches.get();
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		// NOTE: Searching one level above headLevel covers any level
+		// randomLevel() draws right after, see IntSkipList.add().
+		int filled = Math.min(headLevel + 1, MAX_LEVEL);
+		while (true) {
+			boolean found = find(key, preds, succs, Math.max(topLevel, filled));
+			if (found) {
+				return false;
+			}
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled)
+					continue;
+			}
+
+			Node newNode = new Node(key, topLevel);
+			for (int level = bottomLevel; level <= topLevel; level++) {
+				newNode.next[level] = succs[level];
+			}
+
+			// LINEARIZED: The level-0 CAS publishes the new node.
+			Node pred = preds[bottomLevel];
+			Node succ = succs[bottomLevel];
+			if (!NEXT.compareAndSet(pred.next, bottomLevel, succ, newNode))
+				continue;
+			heights[topLevel].increment();
+
+			for (int level = bottomLevel + 1; level <= topLevel; level++) {
+				while (true) {
+					pred = preds[level];
+					succ = succs[level];
+
+					// NOTE: A remove may have claimed the node already, in
+					// which case it is marking the tower and there is no
+					// point linking it any higher. The CAS on newNode.next
+					// fails if the level was marked meanwhile.
+					Node expected = (Node) NEXT.getVolatile(newNode.next, level);
+					if (newNode.claimed != 0 || expected == newNode)
+						return true;
+					if (expected != succ && !NEXT.compareAndSet(newNode.next, level, expected, succ))
+						return true;
+
+					if (NEXT.compareAndSet(pred.next, level, succ, newNode))
+						break;
+					find(key, preds, succs, topLevel);
+				}
+			}
+			return true;
+		}
+	}
+
+	public boolean remove(long key) {
+		int bottomLevel = 0;
+		Search search = searches.get();
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+
+		boolean found = find(key, preds, succs, 0);
+		if (!found) {
+			return false;
+		}
+
+		// LINEARIZED: Claiming the node removes the key. Losing the
+		// claim means another remove took it after find() saw it live.
+		Node nodeToRemove = succs[bottomLevel];
+		if (!CLAIMED.compareAndSet(nodeToRemove, 0, 1)) {
+			return false;
+		}
+		heights[nodeToRemove.topLevel].decrement();
+
+		for (int level = nodeToRemove.topLevel; level >= bottomLevel; level--) {
+			mark(nodeToRemove, level);
+		}
+		find(key, preds, succs, 0);
+		if (nodeToRemove.topLevel > 0)
+			shrinkHead(nodeToRemove.topLevel);
+		return true;
+	}
+
+	/* Fills preds/succs with the nodes around the first node whose key
+	 * is >= key, snipping marked nodes on the way. Returns whether that
+	 * node holds key and is still live. A claimed node with the same key
+	 * may sit in succs[], add() then links the new node in front of it.
+	 * Starts at fromLevel if the head is lower.
+	 */
+	private boolean find(long key, Node[] preds, Node[] succs, int fromLevel) {
+		int bottomLevel = 0;
+		boolean snip;
+		Node pred = null;
+		Node curr = null;
+		Node succ = null;
+		retry: while (true) {
+			pred = head;
+			for (int level = Math.max(headLevel, fromLevel); level >= bottomLevel; level--) {
+				curr = (Node) NEXT.getVolatile(pred.next, level);
+				if (curr == pred)
+					continue retry;
+				while (true) {
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+					while (succ == curr) {
+						succ = curr.frozen[level];
+						snip = NEXT.compareAndSet(pred.next, level, curr, succ);
+						if (!snip)
+							continue retry;
+						curr = succ;
+						succ = (Node) NEXT.getVolatile(curr.next, level);
+					}
+					if (curr != tail && curr.key < key) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return curr != tail && curr.key == key && curr.claimed == 0;
+		}
+	}
+
+	public boolean contains(long key) {
+		int bottomLevel = 0;
+		Node pred = head;
+		Node curr = null;
+		Node succ = null;
+		for (int level = headLevel; level >= bottomLevel; level--) {
+			curr = succ(pred, level);
+			while (true) {
+				succ = (Node) NEXT.getVolatile(curr.next, level);
+				while (succ == curr) {
+					curr = curr.frozen[level];
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+				}
+				if (curr != tail && curr.key < key) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+		}
+		return curr != tail && curr.key == key && curr.claimed == 0;
+	}
+
+	/* Number of keys, summed from the per-height counters without a
+	 * traversal. Exact while no update runs, otherwise it may be off
+	 * by the updates in flight during the call.
+	 */
+	public int size() {
+		long sum = 0;
+		for (LongAdder count : heights)
+			sum += count.sum();
+		return (int) Math.max(0, Math.min(sum, Integer.MAX_VALUE));
+	}
+
+	/* Whether level 0 holds no live node. Exact while no update runs,
+	 * like size(). The walk is not atomic, so with updates in flight it
+	 * may find no key although the set was never empty at any moment.
+	 */
+	public boolean isEmpty() {
+		Node node = succ(head, 0);
+		while (node != tail && node.claimed != 0)
+			node = succ(node, 0);
+		return node == tail;
+	}
+
+	/* Approximate number of keys whose tower reaches each level, from
+	 * 0 up to the current head level. Counted like size(), about
+	 * size() * p^level for random towers.
+	 */
+	public long[] levelSizes() {
+		int top = headLevel;
+		long[] sizes = new long[top + 1];
+		long sum = 0;
+		for (int level = MAX_LEVEL; level >= 0; level--) {
+			sum += heights[level].sum();
+			if (level <= top)
+				sizes[level] = Math.max(0, sum);
+		}
+		return sizes;
+	}
+}
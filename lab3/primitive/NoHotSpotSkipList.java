@@ -0,0 +1,409 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/* "No hot spot" skip list: add(), remove() and contains() only ever
+ * write level 0, a sorted linked list of nodes. The index levels above
+ * it are built by a single maintenance thread, so no update CASes the
+ * upper levels near head that every operation crosses.
+ *
+ * remove() linearizes by claiming the node, like IntSkipList, and
+ * leaves it in place. Each maintenance pass then
+ *   1. unlinks the index entries of claimed nodes, top level first,
+ *   2. marks and snips claimed nodes that are left without an index,
+ *   3. restructures the index bottom up: on every level a node is
+ *      raised when it and both neighbours are not, and a node with
+ *      a raised neighbour in front of it is lowered, so every level
+ *      keeps between a third and a half of the one below.
+ *
+ * Index lists have one writer, plain volatile writes are enough to
+ * change them. Foreground threads may still read an entry that has
+ * just been unlinked, an entry keeps its right link, and a search that
+ * ends on a node marked meanwhile starts over from the top.
+ *
+ * Call start() to run maintenance in a daemon thread, or maintain()
+ * to run a single pass in the calling thread. Until the index is
+ * built every search walks level 0.
+ */
+public final class NoHotSpotSkipList implements IntSet, AutoCloseable {
+	/* Number of index levels, enough for 2^31 keys */
+	private static final int MAX_LEVEL = 31;
+
+	/* Pause between maintenance passes */
+	private static final long PAUSE_MILLIS = 1;
+
+	private static final VarHandle NEXT;
+	private static final VarHandle CLAIMED;
+
+	static {
+		try {
+			NEXT = MethodHandles.lookup().findVarHandle(Node.class, "next", Node.class);
+			CLAIMED = MethodHandles.lookup().findVarHandle(Node.class, "claimed", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Node head = new Node(Integer.MIN_VALUE);
+	private final Node tail = new Node(Integer.MAX_VALUE);
+
+	/* heads[level] starts index level 1..MAX_LEVEL, heads[0] is unused */
+	private final Index[] heads = new Index[MAX_LEVEL + 1];
+
+	/* Highest index level with an entry, searches start here */
+	private volatile int indexLevel = 0;
+
+	private final LongAdder count = new LongAdder();
+
+	/* Per-thread pred/succ pair, reused by every add and remove */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+	/* Held for a whole pass, so index lists have a single writer */
+	private final Object maintenance = new Object();
+
+	private final long pauseMillis;
+	private volatile Thread maintainer;
+	private volatile long passes;
+
+	public NoHotSpotSkipList() {
+		this(PAUSE_MILLIS);
+	}
+
+	/* pauseMillis is how long the maintenance thread sleeps between passes */
+	public NoHotSpotSkipList(long pauseMillis) {
+		this.pauseMillis = pauseMillis;
+		head.next = tail;
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			heads[level] = new Index(head, null, level > 1 ? heads[level - 1] : null);
+		}
+	}
+
+	/* Builds a list holding keys, in any order, with its index in place */
+	public static NoHotSpotSkipList fromUnsorted(int[] keys) {
+		int[] sorted = keys.clone();
+		Arrays.parallelSort(sorted);
+
+		NoHotSpotSkipList list = new NoHotSpotSkipList();
+		Node last = list.head;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i > 0 && sorted[i] == sorted[i - 1])
+				continue;
+			Node node = new Node(sorted[i]);
+			last.next = node;
+			last = node;
+			list.count.increment();
+		}
+		last.next = list.tail;
+		list.maintain();
+		return list;
+	}
+
+	private static final class Node {
+		final int key;
+		volatile Node next;
+
+		/* Successor when marked, written once by the maintenance thread */
+		Node frozen;
+
+		/* 0 while live, 1 once a remove has claimed the node */
+		volatile int claimed;
+
+		/* Index levels the node has, only used under the maintenance lock */
+		int height;
+
+		Node(int key) {
+			this.key = key;
+		}
+	}
+
+	private static final class Search {
+		Node pred;
+		Node succ;
+	}
+
+	private static final class Index {
+		final Node node;
+		final Index down;
+		volatile Index right;
+
+		Index(Node node, Index right, Index down) {
+			this.node = node;
+			this.right = right;
+			this.down = down;
+		}
+	}
+
+	public boolean add(int key) {
+		Search search = searches.get();
+		while (true) {
+			if (find(key, search))
+				return false;
+
+			Node pred = search.pred;
+			Node succ = search.succ;
+			Node newNode = new Node(key);
+			newNode.next = succ;
+
+			// LINEARIZED: The level-0 CAS publishes the new node.
+			if (NEXT.compareAndSet(pred, succ, newNode)) {
+				count.increment();
+				return true;
+			}
+		}
+	}
+
+	public boolean remove(int key) {
+		Search search = searches.get();
+		if (!find(key, search))
+			return false;
+
+		// LINEARIZED: Claiming the node removes the key, the
+		// maintenance thread unlinks it later.
+		if (!CLAIMED.compareAndSet(search.succ, 0, 1))
+			return false;
+		count.decrement();
+		return true;
+	}
+
+	/* Wait-free, marked nodes are passed through their frozen link */
+	public boolean contains(int key) {
+		Node curr = start(key);
+		while (curr != tail && curr.key < key) {
+			Node succ = curr.next;
+			curr = succ == curr ? curr.frozen : succ;
+		}
+		return curr != tail && curr.key == key && curr.claimed == 0;
+	}
+
+	/* Number of keys, exact while no update runs */
+	public int size() {
+		return (int) Math.max(0, Math.min(count.sum(), Integer.MAX_VALUE));
+	}
+
+	/* Number of maintenance passes run so far */
+	public long passes() {
+		return passes;
+	}
+
+	/* Rightmost node reached through the index whose key is < key.
+	 * NOTE: Entries of marked nodes are not used as a start, their
+	 * node may already be gone from level 0.
+	 */
+	private Node start(int key) {
+		int top = indexLevel;
+		if (top == 0)
+			return head;
+		Index index = heads[top];
+		while (true) {
+			Index right = index.right;
+			while (right != null && right.node.key < key && right.node.next != right.node) {
+				index = right;
+				right = right.right;
+			}
+			if (index.down == null)
+				return index.node;
+			index = index.down;
+		}
+	}
+
+	/* Fills search with the level-0 nodes on both sides of the first
+	 * node whose key is >= key, snipping marked nodes on the way.
+	 * Returns whether that node holds key and is still live.
+	 */
+	private boolean find(int key, Search search) {
+		retry: while (true) {
+			Node pred = start(key);
+			Node curr = pred.next;
+			if (curr == pred)
+				continue retry;
+			while (true) {
+				Node succ = curr.next;
+				while (succ == curr) {
+					succ = curr.frozen;
+					if (!NEXT.compareAndSet(pred, curr, succ))
+						continue retry;
+					curr = succ;
+					succ = curr.next;
+				}
+				if (curr != tail && curr.key < key) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+			search.pred = pred;
+			search.succ = curr;
+			return curr != tail && curr.key == key && curr.claimed == 0;
+		}
+	}
+
+	/* Starts the maintenance thread, does nothing if it is running */
+	public synchronized void start() {
+		if (maintainer != null)
+			return;
+		Thread thread = new Thread(() -> {
+			while (maintainer == Thread.currentThread()) {
+				maintain();
+				try {
+					Thread.sleep(pauseMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "nohotspot-maintenance");
+		thread.setDaemon(true);
+		maintainer = thread;
+		thread.start();
+	}
+
+	/* Stops the maintenance thread and waits for its last pass */
+	public synchronized void close() {
+		Thread thread = maintainer;
+		if (thread == null)
+			return;
+		maintainer = null;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Runs one maintenance pass */
+	public void maintain() {
+		synchronized (maintenance) {
+			for (int level = indexLevel; level >= 1; level--) {
+				unlinkClaimed(level);
+			}
+			purge();
+
+			int top = 0;
+			for (int level = 0; level < MAX_LEVEL; level++) {
+				if (level == 0)
+					raiseBottom();
+				else
+					raise(level);
+				if (heads[level + 1].right == null)
+					break;
+				top = level + 1;
+			}
+			indexLevel = top;
+			passes++;
+		}
+	}
+
+	/* Drops the entries of claimed nodes from one index level. Runs top
+	 * level first and only drops the top entry of a tower, a node claimed
+	 * halfway through keeps its lower entries until the next pass.
+	 */
+	private void unlinkClaimed(int level) {
+		Index pred = heads[level];
+		Index curr = pred.right;
+		while (curr != null) {
+			if (curr.node.claimed != 0 && curr.node.height == level) {
+				pred.right = curr.right;
+				curr.node.height = level - 1;
+			} else {
+				pred = curr;
+			}
+			curr = curr.right;
+		}
+	}
+
+	/* Marks and snips the claimed nodes at level 0 that have no index.
+	 * Nodes claimed after unlinkClaimed() ran wait for the next pass.
+	 */
+	private void purge() {
+		Node pred = head;
+		Node curr = pred.next;
+		while (curr != tail) {
+			if (curr.claimed != 0 && curr.height == 0) {
+				mark(curr);
+				// NOTE: The snip fails when a node was added in front of
+				// curr or a foreground find() snipped it already. Either
+				// way pred.next is re-read and curr met again or not.
+				NEXT.compareAndSet(pred, curr, curr.frozen);
+				curr = pred.next;
+				continue;
+			}
+			pred = curr;
+			curr = curr.next;
+		}
+	}
+
+	private static void mark(Node node) {
+		while (true) {
+			Node succ = node.next;
+			if (succ == node)
+				return;
+			node.frozen = succ;
+			if (NEXT.compareAndSet(node, succ, node))
+				return;
+		}
+	}
+
+	/* Restructures index level 1 from level 0, see the class comment.
+	 * up trails the entry of the last raised node, so new entries are
+	 * linked in level-0 order without comparing keys.
+	 */
+	private void raiseBottom() {
+		Index up = heads[1];
+		boolean prevRaised = true;
+		Node curr = head.next;
+		while (curr != tail) {
+			Node succ = curr.next;
+			boolean raised = curr.height >= 1;
+			if (raised) {
+				if (prevRaised && curr.height == 1) {
+					up.right = up.right.right;
+					curr.height = 0;
+					raised = false;
+				} else {
+					up = up.right;
+				}
+			} else if (!prevRaised && succ != tail && succ.height == 0) {
+				Index index = new Index(curr, up.right, null);
+				up.right = index;
+				up = index;
+				curr.height = 1;
+				raised = true;
+			}
+			prevRaised = raised;
+			curr = succ;
+		}
+	}
+
+	/* Same as raiseBottom() for index level + 1 from index level */
+	private void raise(int level) {
+		Index up = heads[level + 1];
+		boolean prevRaised = true;
+		Index curr = heads[level].right;
+		while (curr != null) {
+			Index succ = curr.right;
+			Node node = curr.node;
+			boolean raised = node.height > level;
+			if (raised) {
+				if (prevRaised && node.height == level + 1) {
+					up.right = up.right.right;
+					node.height = level;
+					raised = false;
+				} else {
+					up = up.right;
+				}
+			} else if (!prevRaised && succ != null && succ.node.height == level) {
+				Index index = new Index(node, up.right, curr);
+				up.right = index;
+				up = index;
+				node.height = level + 1;
+				raised = true;
+			}
+			prevRaised = raised;
+			curr = succ;
+		}
+	}
+}
@@ -0,0 +1,580 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import common.LevelGenerator;
+
+/* Lock-free int skip list kept outside the Java heap. Nodes live in
+ * direct ByteBuffer pages and refer to each other by int offsets, so
+ * the GC sees a few page objects instead of one object per node and
+ * link.
+ *
+ * Offsets count 8-byte units. A node at unit u takes
+ *   [key:int][refs:24 topLevel:8][next[0]:int]...[next[topLevel]:int]
+ * rounded up to whole units, 16 bytes for most keys. A link holds the
+ * successor's unit shifted left by one, the low bit is the mark, as
+ * in the AtomicMarkableReference of original.LockFreeSkipList. Links
+ * are read and CASed through a VarHandle view of the page.
+ *
+ * Same algorithm as original.LockFreeSkipList: remove() linearizes by
+ * marking level 0. Threads bump-allocate nodes in blocks they take
+ * from the shared arena, so allocation does not contend.
+ *
+ * Removed nodes are reused as in RecyclingIntSkipList. refs counts the
+ * levels a node is linked at, plus one while its adder is linking, and
+ * whichever thread snips the last link retires the node. Retired
+ * offsets gather in per-thread batches of BATCH, which go through the
+ * EpochReclaimer and come back to the free list of their height once
+ * no operation can still read them. Full free lists spill batches to
+ * a shared pool per height, which empty ones take from before they
+ * allocate. A pool is a Treiber stack of offsets: within a batch the
+ * nodes are chained by next[0], and the first node of each batch
+ * keeps the offset of the next batch where its key was. The arena thus grows with the number of keys, not with the
+ * number of updates. Nodes still in a thread's unfinished batch, up to
+ * BATCH per thread, are not reused.
+ */
+public final class OffHeapIntSkipList implements IntSet {
+	/* Number of levels, enough for 2^31 keys at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability */
+	private static final double P = 0.5;
+
+	/* Free nodes kept per thread and height, the rest go to the pool */
+	private static final int FREE_LIMIT = 1024;
+
+	/* Nodes retired, or moved to or from the pool, at once */
+	private static final int BATCH = 64;
+
+	/* Units per page (8 MB), per thread block (32 KB), and in total */
+	private static final int PAGE_BITS = 20;
+	private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+	private static final int BLOCK = 1 << 12;
+	private static final int MAX_UNITS = 1 << 30;
+
+	/* Stamp 0, no batch */
+	private static final long EMPTY_POOL = 0xffffffffL;
+
+	/* Header bits below refs */
+	private static final int REF = 1 << 8;
+	private static final int HEIGHT_MASK = REF - 1;
+
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle PAGE = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+	private static final VarHandle POOL = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle TOP;
+	private static final VarHandle HEAD_LEVEL;
+
+	static {
+		try {
+			TOP = MethodHandles.lookup().findVarHandle(OffHeapIntSkipList.class, "top", int.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(OffHeapIntSkipList.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final ByteBuffer[] pages = new ByteBuffer[MAX_UNITS >>> PAGE_BITS];
+
+	/* First unit no thread has taken yet */
+	private volatile int top = 0;
+
+	private final int head;
+	private final int tail;
+
+	private final EpochReclaimer<int[]> reclaimer = new EpochReclaimer<>();
+
+	/* Top of the shared pool per height, (stamp << 32 | first node of
+	 * the top batch), -1 for none. The stamp changes with every push
+	 * and pop, so a pop that read a batch which was popped and pushed
+	 * back meanwhile fails its CAS.
+	 */
+	private final long[] pools = new long[MAX_LEVEL + 1];
+
+	/* Per-thread preds/succs, allocation block, free lists and
+	 * reclaimer record
+	 */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(this));
+
+	private final LevelGenerator levels;
+
+	/* See IntSkipList.headLevel */
+	private volatile int headLevel = 0;
+
+	/* Towers the top level needs before a level is opened above it */
+	private final int fanout;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+
+	public OffHeapIntSkipList() {
+		this(P);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public OffHeapIntSkipList(double p) {
+		levels = new LevelGenerator(MAX_LEVEL, p);
+		fanout = Math.max(2, (int) Math.round(1 / p));
+		Arrays.fill(pools, EMPTY_POOL);
+		Search search = searches.get();
+		head = allocate(search, MAX_LEVEL);
+		tail = allocate(search, MAX_LEVEL);
+		init(head, Integer.MIN_VALUE, MAX_LEVEL, 1);
+		init(tail, Integer.MAX_VALUE, MAX_LEVEL, 1);
+		for (int level = 0; level <= MAX_LEVEL; level++) {
+			setLink(head, level, tail << 1);
+		}
+	}
+
+	private static final class Search implements Consumer<int[]> {
+		final int[] preds = new int[MAX_LEVEL + 1];
+		final int[] succs = new int[MAX_LEVEL + 1];
+
+		/* Units [next, end) of the current block */
+		int next, end;
+
+		/* Free nodes by height, -1 for none */
+		final int[] free = new int[MAX_LEVEL + 1];
+		final int[] freeCount = new int[MAX_LEVEL + 1];
+
+		/* Nodes retired since the last batch went to the reclaimer */
+		int[] retired = new int[BATCH];
+		int retiredCount;
+
+		/* A recycled batch array, kept for the next retired batch */
+		int[] spare;
+
+		final OffHeapIntSkipList list;
+		final EpochReclaimer.Record<int[]> record;
+
+		Search(OffHeapIntSkipList list) {
+			Arrays.fill(free, -1);
+			this.list = list;
+			record = list.reclaimer.register(this);
+		}
+
+		/* Takes back a batch of nodes no thread can reach any more */
+		public void accept(int[] batch) {
+			for (int node : batch)
+				list.recycle(this, node);
+			spare = batch;
+		}
+	}
+
+	private static int units(int height) {
+		return (8 + 4 * (height + 1) + 7) >>> 3;
+	}
+
+	/* Takes a free node of height, from the thread's free list or else
+	 * from the pool, and bump-allocates one if there is none. Blocks
+	 * divide pages evenly, so a node never spans two pages.
+	 */
+	private int allocate(Search search, int height) {
+		if (search.free[height] < 0) {
+			int batch = pop(height);
+			if (batch >= 0) {
+				search.free[height] = batch;
+				search.freeCount[height] = BATCH;
+			}
+		}
+		int free = search.free[height];
+		if (free >= 0) {
+			search.free[height] = link(free, 0);
+			search.freeCount[height]--;
+			reused.increment();
+			return free;
+		}
+
+		int size = units(height);
+		if (search.end - search.next < size) {
+			int block = (int) TOP.getAndAdd(this, BLOCK);
+			if (block < 0 || block > MAX_UNITS - BLOCK)
+				throw new OutOfMemoryError("off-heap arena full");
+			int index = block >>> PAGE_BITS;
+			// NOTE: Only the thread whose block opens the page allocates
+			// it, the others wait for it rather than allocate 8 MB they
+			// would throw away.
+			if ((block & PAGE_MASK) == 0) {
+				PAGE.setVolatile(pages, index, ByteBuffer.allocateDirect((PAGE_MASK + 1) << 3).order(ByteOrder.nativeOrder()));
+			} else {
+				while (PAGE.getVolatile(pages, index) == null)
+					Thread.yield();
+			}
+			search.next = block;
+			search.end = block + BLOCK;
+		}
+		int node = search.next;
+		search.next += size;
+		return node;
+	}
+
+	/* Puts a node no thread can reach on the thread's free list, moving
+	 * BATCH nodes to the pool first if the list is full
+	 */
+	private void recycle(Search search, int node) {
+		int height = topLevel(node);
+		if (search.freeCount[height] == FREE_LIMIT) {
+			int first = search.free[height];
+			int last = first;
+			for (int i = 1; i < BATCH; i++)
+				last = link(last, 0);
+			search.free[height] = link(last, 0);
+			search.freeCount[height] -= BATCH;
+			setLink(last, 0, -1);
+			push(height, first);
+		}
+		setLink(node, 0, search.free[height]);
+		search.free[height] = node;
+		search.freeCount[height]++;
+	}
+
+	/* Pushes the batch starting at first on the pool of height */
+	private void push(int height, int first) {
+		ByteBuffer page = page(first);
+		while (true) {
+			long top = (long) POOL.getVolatile(pools, height);
+			INT.set(page, offset(first), (int) top);
+			if (POOL.compareAndSet(pools, height, top, (top >>> 32) + 1 << 32 | first))
+				return;
+		}
+	}
+
+	/* Pops a batch off the pool of height, -1 if there is none */
+	private int pop(int height) {
+		while (true) {
+			long top = (long) POOL.getVolatile(pools, height);
+			int first = (int) top;
+			if (first < 0)
+				return -1;
+			// NOTE: first may be popped and reused meanwhile, then rest
+			// is garbage and the stamp makes the CAS fail.
+			int rest = key(first);
+			if (POOL.compareAndSet(pools, height, top, (top >>> 32) + 1 << 32 | rest & 0xffffffffL))
+				return first;
+		}
+	}
+
+	/* Drops one reference, the last one retires the node */
+	private void release(Search search, int node) {
+		if ((int) INT.getAndAdd(page(node), offset(node) + 4, -REF) >>> 8 != 1)
+			return;
+		search.retired[search.retiredCount++] = node;
+		if (search.retiredCount == BATCH) {
+			reclaimer.retire(search.record, search.retired);
+			search.retired = search.spare != null ? search.spare : new int[BATCH];
+			search.spare = null;
+			search.retiredCount = 0;
+		}
+	}
+
+	private ByteBuffer page(int node) {
+		return pages[node >>> PAGE_BITS];
+	}
+
+	private static int offset(int node) {
+		return (node & PAGE_MASK) << 3;
+	}
+
+	/* Sets key and height, with refs for a node about to be linked at
+	 * level 0 by its adder
+	 */
+	private void init(int node, int key, int height, int refs) {
+		ByteBuffer page = (ByteBuffer) PAGE.getVolatile(pages, node >>> PAGE_BITS);
+		INT.set(page, offset(node), key);
+		INT.set(page, offset(node) + 4, refs * REF | height);
+	}
+
+	private int key(int node) {
+		return (int) INT.get(page(node), offset(node));
+	}
+
+	private int topLevel(int node) {
+		return (int) INT.get(page(node), offset(node) + 4) & HEIGHT_MASK;
+	}
+
+	private void retain(int node, int delta) {
+		INT.getAndAdd(page(node), offset(node) + 4, delta * REF);
+	}
+
+	private int link(int node, int level) {
+		return (int) INT.getVolatile(page(node), offset(node) + 8 + (level << 2));
+	}
+
+	private void setLink(int node, int level, int link) {
+		INT.set(page(node), offset(node) + 8 + (level << 2), link);
+	}
+
+	private boolean casLink(int node, int level, int expected, int link) {
+		return INT.compareAndSet(page(node), offset(node) + 8 + (level << 2), expected, link);
+	}
+
+	/* Same as IntSkipList.randomLevel() */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	/* First node from node on at level whose link there is unmarked */
+	private int unmarked(int node, int level) {
+		int link = link(node, level);
+		while (node != tail && (link & 1) != 0) {
+			node = link >>> 1;
+			link = link(node, level);
+		}
+		return node;
+	}
+
+	/* Whether level holds at least fanout unmarked towers */
+	private boolean crowded(int level) {
+		int node = link(head, level) >>> 1;
+		for (int n = 0; n < fanout; n++) {
+			node = unmarked(node, level);
+			if (node == tail)
+				return false;
+			node = link(node, level) >>> 1;
+		}
+		return true;
+	}
+
+	/* Same as IntSkipList.shrinkHead() */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			if (unmarked(link(head, current) >>> 1, current) != tail
+					|| !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	public boolean add(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			return add(key, search);
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	public boolean remove(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			return remove(key, search);
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	public boolean contains(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			return seek(key);
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	private boolean add(int key, Search search) {
+		int topLevel = -1;
+		int bottomLevel = 0;
+		int[] preds = search.preds;
+		int[] succs = search.succs;
+		int newNode = -1;
+		// NOTE: Searching one level above headLevel covers any level
+		// randomLevel() draws right after, see IntSkipList.add().
+		int filled = Math.min(headLevel + 1, MAX_LEVEL);
+		while (true) {
+			boolean found = find(key, -1, search, Math.max(topLevel, filled));
+			if (found) {
+				// NOTE: Never published, goes straight back to the free list.
+				if (newNode >= 0)
+					recycle(search, newNode);
+				return false;
+			}
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled)
+					continue;
+			}
+
+			if (newNode < 0) {
+				newNode = allocate(search, topLevel);
+				init(newNode, key, topLevel, 2);
+			}
+			for (int level = bottomLevel; level <= topLevel; level++) {
+				setLink(newNode, level, succs[level] << 1);
+			}
+
+			// LINEARIZED: The level-0 CAS publishes the new node.
+			int pred = preds[bottomLevel];
+			int succ = succs[bottomLevel];
+			if (!casLink(pred, bottomLevel, succ << 1, newNode << 1))
+				continue;
+			count.increment();
+
+			linkTower(newNode, topLevel, search);
+			// NOTE: A remove that marked the node before its last link
+			// may have searched past that level already.
+			if ((link(newNode, bottomLevel) & 1) != 0)
+				find(key, newNode, search, topLevel);
+			release(search, newNode);
+			return true;
+		}
+	}
+
+	/* Links levels 1..topLevel, see IntSkipList.add() */
+	private void linkTower(int newNode, int topLevel, Search search) {
+		int[] preds = search.preds;
+		int[] succs = search.succs;
+		for (int level = 1; level <= topLevel; level++) {
+			while (true) {
+				int pred = preds[level];
+				int succ = succs[level];
+
+				// NOTE: Stop once a remove marked the level, see
+				// IntSkipList.add(). Only a mark changes a link
+				// of newNode under us, so a failed CAS means one.
+				int expected = link(newNode, level);
+				if ((expected & 1) != 0)
+					return;
+				if (expected != succ << 1 && !casLink(newNode, level, expected, succ << 1))
+					return;
+
+				// NOTE: The reference is taken before the link, a snip
+				// may follow the CAS before this thread runs again.
+				retain(newNode, 1);
+				if (casLink(pred, level, succ << 1, newNode << 1))
+					break;
+				retain(newNode, -1);
+				find(key(newNode), -1, search, topLevel);
+			}
+		}
+	}
+
+	private boolean remove(int key, Search search) {
+		int bottomLevel = 0;
+		int[] succs = search.succs;
+
+		if (!find(key, -1, search, 0))
+			return false;
+
+		int nodeToRemove = succs[bottomLevel];
+		for (int level = topLevel(nodeToRemove); level > bottomLevel; level--) {
+			int link = link(nodeToRemove, level);
+			while ((link & 1) == 0) {
+				casLink(nodeToRemove, level, link, link | 1);
+				link = link(nodeToRemove, level);
+			}
+		}
+
+		int link = link(nodeToRemove, bottomLevel);
+		while (true) {
+			if ((link & 1) != 0)
+				return false;
+			// LINEARIZED: Marking level 0 removes the key.
+			if (casLink(nodeToRemove, bottomLevel, link, link | 1)) {
+				count.decrement();
+				find(key, nodeToRemove, search, topLevel(nodeToRemove));
+				if (topLevel(nodeToRemove) > 0)
+					shrinkHead(topLevel(nodeToRemove));
+				return true;
+			}
+			link = link(nodeToRemove, bottomLevel);
+		}
+	}
+
+	/* Fills preds/succs with the nodes around the first node whose key
+	 * is >= key, snipping marked nodes on the way and releasing them.
+	 * With a target >= 0, it also walks past nodes of the same key
+	 * until it meets target, see RecyclingIntSkipList.find(). Starts
+	 * at fromLevel if the head is lower.
+	 */
+	private boolean find(int key, int target, Search search, int fromLevel) {
+		int bottomLevel = 0;
+		int[] preds = search.preds;
+		int[] succs = search.succs;
+		int pred = 0;
+		int curr = 0;
+		retry: while (true) {
+			pred = head;
+			for (int level = Math.max(headLevel, fromLevel); level >= bottomLevel; level--) {
+				curr = link(pred, level) >>> 1;
+				while (true) {
+					int succ = link(curr, level);
+					while ((succ & 1) != 0) {
+						if (!casLink(pred, level, curr << 1, succ & ~1))
+							continue retry;
+						release(search, curr);
+						curr = succ >>> 1;
+						succ = link(curr, level);
+					}
+					if (curr != tail && (key(curr) < key || (key(curr) == key && target >= 0 && curr != target))) {
+						pred = curr;
+						curr = succ >>> 1;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return curr != tail && key(curr) == key;
+		}
+	}
+
+	private boolean seek(int key) {
+		int bottomLevel = 0;
+		int pred = head;
+		int curr = 0;
+		for (int level = headLevel; level >= bottomLevel; level--) {
+			curr = link(pred, level) >>> 1;
+			while (true) {
+				int succ = link(curr, level);
+				while ((succ & 1) != 0) {
+					curr = succ >>> 1;
+					succ = link(curr, level);
+				}
+				if (curr != tail && key(curr) < key) {
+					pred = curr;
+					curr = succ >>> 1;
+				} else {
+					break;
+				}
+			}
+		}
+		return curr != tail && key(curr) == key && (link(curr, bottomLevel) & 1) == 0;
+	}
+
+	public int size() {
+		return (int) Math.max(0, Math.min(count.sum(), Integer.MAX_VALUE));
+	}
+
+	/* Off-heap bytes taken from the arena so far, including the unused
+	 * tail of every thread's current block and all free nodes
+	 */
+	public long bytesUsed() {
+		return (long) Math.min(top, MAX_UNITS) << 3;
+	}
+
+	/* Nodes taken from a free list so far */
+	public long reused() {
+		return reused.sum();
+	}
+}
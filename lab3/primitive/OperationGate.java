@@ -0,0 +1,111 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/* Lets one thread at a time run with no operation of a structure in
+ * progress. Operations announce themselves in a Reader of their own
+ * thread between enter() and exit(). close() raises a flag and waits
+ * for all readers to drain, operations arriving meanwhile wait for
+ * open(). While the gate is open, announcing costs a store to a field
+ * no other thread writes.
+ */
+final class OperationGate {
+	private static final VarHandle DEPTH;
+	private static final VarHandle CLOSED;
+
+	static {
+		try {
+			DEPTH = MethodHandles.lookup().findVarHandle(Reader.class, "depth", int.class);
+			CLOSED = MethodHandles.lookup().findVarHandle(OperationGate.class, "closed", boolean.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/* Copy-on-write, one per live thread that has entered */
+	private volatile Reader[] readers = new Reader[0];
+	private final ThreadLocal<Reader> reader = ThreadLocal.withInitial(this::register);
+
+	private volatile boolean closed;
+
+	/* Operations in progress on one thread. Only the owner writes depth,
+	 * close() reads it. Each is allocated by its own thread, so two
+	 * readers rarely share a cache line.
+	 */
+	static final class Reader {
+		volatile int depth;
+
+		/* Cleared by the collector once the thread is gone */
+		WeakReference<Thread> owner;
+	}
+
+	/* Hands the calling thread the reader of a thread that has exited,
+	 * or a new one, so readers[] stays as long as the most threads
+	 * alive at once.
+	 */
+	private synchronized Reader register() {
+		Thread self = Thread.currentThread();
+		for (Reader r : readers) {
+			Thread owner = r.owner.get();
+			if (owner == null || !owner.isAlive()) {
+				r.owner = new WeakReference<>(self);
+				return r;
+			}
+		}
+		Reader r = new Reader();
+		r.owner = new WeakReference<>(self);
+		Reader[] next = Arrays.copyOf(readers, readers.length + 1);
+		next[readers.length] = r;
+		readers = next;
+		return r;
+	}
+
+	/* Announces an operation, waits while the gate is closed */
+	Reader enter() {
+		Reader r = reader.get();
+		int depth = r.depth;
+		if (depth > 0) {
+			// NOTE: Already inside an operation, which close() waits
+			// for anyway.
+			r.depth = depth + 1;
+			return r;
+		}
+		while (true) {
+			r.depth = 1;
+			// NOTE: Both accesses are volatile: the flag is read after
+			// the depth is raised, and close() reads the depths after
+			// raising the flag, so at least one of the two sees the
+			// other.
+			if (!closed)
+				return r;
+			DEPTH.setRelease(r, 0);
+			while (closed)
+				Thread.yield();
+		}
+	}
+
+	void exit(Reader r) {
+		DEPTH.setRelease(r, r.depth - 1);
+	}
+
+	/* Waits until no operation runs and keeps new ones waiting until
+	 * open(). Returns false without waiting if another thread has the
+	 * gate closed, or if the calling thread is inside an operation.
+	 */
+	boolean close() {
+		if (reader.get().depth > 0 || !CLOSED.compareAndSet(this, false, true))
+			return false;
+		for (Reader r : readers) {
+			while (r.depth != 0)
+				Thread.yield();
+		}
+		return true;
+	}
+
+	void open() {
+		closed = false;
+	}
+}
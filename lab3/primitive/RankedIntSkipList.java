@@ -0,0 +1,316 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/* IntSkipList with order statistics: rank(), select() and
+ * countInRange() without walking level 0 from the head.
+ *
+ * Span counts on the index links of the list itself would have to move
+ * whenever a tower is linked or unlinked beside them, which cannot be
+ * done atomically with the CAS that changes the link. The counts are
+ * kept instead on an Index beside the list: the key space is cut into
+ * buckets at sorted boundary keys, and a Fenwick tree over the buckets
+ * holds the number of keys in each. A successful add() or remove()
+ * finds its bucket by binary search and adds +1 or -1 to the about
+ * log2(buckets) cells covering it, one atomic add each.
+ *
+ * A query reads at most log2(buckets) cells to find the bucket and
+ * the keys before it, then walks the list inside that one bucket. The
+ * first Index cuts [min, max] evenly, or the keys already in the list
+ * at their quantiles. When keys cluster, a few buckets fill up and
+ * queries walk long runs of keys, so queries add up the keys they
+ * walk, and once the sum since the last rebuild passes the key count
+ * the query that noticed marks the Index stale. The next add() or
+ * remove() then rebuilds it with boundaries at the current quantiles.
+ * A rebuild costs one pass over the list and is paid for by the
+ * walking it saves, afterwards every bucket holds about
+ * size() / buckets keys wherever they lie, including keys outside
+ * [min, max]. A query thus reads log2(buckets) cells and walks about
+ * size() / buckets keys, O(n / buckets) rather than O(log n).
+ *
+ * Every result is exact while no update runs. Each cell is read once,
+ * and a Fenwick prefix holds exactly one cell that an update of a key
+ * below it adds to, so an update that is still in flight, between its
+ * CAS on the list and its last counter, is counted either fully or not
+ * at all: like size(), a result may be off by the updates in flight
+ * during the call, and never by more. countInRange() reads two
+ * prefixes, and an update may be counted in one and not the other.
+ * Updates pass an OperationGate, which a rebuild closes while it counts
+ * the keys and installs the new Index, so no update is counted in an
+ * Index it missed. The update that rebuilds does so before it enters
+ * the gate, and other updates wait for it. Queries neither rebuild nor
+ * wait for a rebuild, they finish on the Index they started on.
+ */
+public final class RankedIntSkipList implements IntSet {
+	/* Default number of buckets */
+	private static final int BUCKETS = 1 << 16;
+
+	/* Walks shorter than this many keys are not added up */
+	private static final int SHORT_WALK = 16;
+
+	private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final IntSkipList list;
+	private final int maxBuckets;
+
+	/* Replaced as a whole by rebuild() */
+	private volatile Index index;
+
+	private final OperationGate gate = new OperationGate();
+
+	/* Keys walked by queries since the last rebuild */
+	private final LongAdder walked = new LongAdder();
+
+	/* Set by a query once the walks have cost more than a rebuild,
+	 * cleared by rebuild()
+	 */
+	private volatile boolean stale;
+	private volatile int rebuilds;
+
+	private static final class Index {
+		/* Smallest key of every bucket, ascending, lows[0] is
+		 * Integer.MIN_VALUE
+		 */
+		final int[] lows;
+
+		/* Fenwick tree, cells[i] counts the keys of buckets
+		 * [i - (i & -i), i), cells[0] is unused
+		 */
+		final long[] cells;
+
+		/* Keys a walk inside one bucket passes when none is crowded */
+		final long mean;
+
+		Index(int[] lows, long[] counts, long total) {
+			this.lows = lows;
+			this.cells = new long[lows.length + 1];
+			this.mean = total / lows.length + 1;
+			for (int i = 1; i <= lows.length; i++) {
+				cells[i] += counts[i - 1];
+				int parent = i + (i & -i);
+				if (parent <= lows.length)
+					cells[parent] += cells[i];
+			}
+		}
+
+		int buckets() {
+			return lows.length;
+		}
+
+		/* Last bucket whose smallest key is <= key */
+		int bucket(int key) {
+			int at = Arrays.binarySearch(lows, key);
+			return at >= 0 ? at : -at - 2;
+		}
+	}
+
+	public RankedIntSkipList(int min, int max) {
+		this(new IntSkipList(), min, max, BUCKETS);
+	}
+
+	/* Counts the keys of list, which must not be updated directly while
+	 * this wrapper is in use. The first Index has at most buckets
+	 * buckets, cut at the quantiles of the keys of list or, if it is
+	 * empty, evenly over [min, max] and at most one per key. Rebuilds
+	 * keep at most buckets.
+	 */
+	public RankedIntSkipList(IntSkipList list, int min, int max, int buckets) {
+		if (min > max || buckets < 1 || buckets > 1 << 28)
+			throw new IllegalArgumentException("min " + min + ", max " + max + ", buckets " + buckets);
+		this.list = list;
+		this.maxBuckets = buckets;
+		if (list.isEmpty())
+			this.index = evenIndex(min, max, buckets);
+		else
+			this.index = countIndex();
+	}
+
+	private static Index evenIndex(int min, int max, int buckets) {
+		long span = (long) max - min + 1;
+		int limit = Integer.highestOneBit(buckets);
+		int shift = 0;
+		while ((span - 1) >>> shift >= limit)
+			shift++;
+		int[] lows = new int[(int) ((span - 1) >>> shift) + 1];
+		lows[0] = Integer.MIN_VALUE;
+		for (int b = 1; b < lows.length; b++)
+			lows[b] = (int) (min + ((long) b << shift));
+		return new Index(lows, new long[lows.length], 0);
+	}
+
+	/* Cuts the keys of the list into runs of equal length, one pass.
+	 * Only called while no update runs.
+	 */
+	private Index countIndex() {
+		long total = list.size();
+		int buckets = (int) Math.max(1, Math.min(maxBuckets, total));
+		long per = (total + buckets - 1) / buckets;
+		int[] lows = new int[buckets];
+		long[] counts = new long[buckets];
+		lows[0] = Integer.MIN_VALUE;
+		int bucket = 0;
+		long seen = 0;
+		PrimitiveIterator.OfInt it = list.iterator();
+		while (it.hasNext()) {
+			int key = it.nextInt();
+			if (seen > 0 && seen % per == 0 && bucket + 1 < buckets)
+				lows[++bucket] = key;
+			counts[bucket]++;
+			seen++;
+		}
+		return new Index(Arrays.copyOf(lows, bucket + 1), counts, seen);
+	}
+
+	public boolean add(int key) {
+		if (stale)
+			rebuild();
+		OperationGate.Reader r = gate.enter();
+		try {
+			if (!list.add(key))
+				return false;
+			count(index, key, 1);
+			return true;
+		} finally {
+			gate.exit(r);
+		}
+	}
+
+	public boolean remove(int key) {
+		if (stale)
+			rebuild();
+		OperationGate.Reader r = gate.enter();
+		try {
+			if (!list.remove(key))
+				return false;
+			count(index, key, -1);
+			return true;
+		} finally {
+			gate.exit(r);
+		}
+	}
+
+	public boolean contains(int key) {
+		return list.contains(key);
+	}
+
+	public int size() {
+		return list.size();
+	}
+
+	/* Number of keys < key */
+	public int rank(int key) {
+		Index index = this.index;
+		int bucket = index.bucket(key);
+		long rank = prefix(index, bucket);
+		int low = index.lows[bucket];
+		long steps = 0;
+		if (low < key) {
+			PrimitiveIterator.OfInt it = list.tailIterator(low);
+			while (it.hasNext() && it.nextInt() < key)
+				steps++;
+		}
+		walk(index, steps);
+		return clamp(rank + steps);
+	}
+
+	/* Key with exactly k smaller keys, empty if there are k or fewer
+	 * keys in all. k = size() / 2 gives the median.
+	 */
+	public OptionalInt select(int k) {
+		if (k < 0)
+			return OptionalInt.empty();
+		Index index = this.index;
+		int buckets = index.buckets();
+		// NOTE: Descends the Fenwick tree to the last bucket whose keys
+		// before it number at most k, skipping whole subtrees at once.
+		int bucket = 0;
+		long rest = k;
+		for (int step = Integer.highestOneBit(buckets); step > 0; step >>>= 1) {
+			int next = bucket + step;
+			if (next <= buckets) {
+				long count = (long) CELL.getVolatile(index.cells, next);
+				if (count <= rest) {
+					bucket = next;
+					rest -= count;
+				}
+			}
+		}
+		if (bucket == buckets)
+			return OptionalInt.empty();
+		PrimitiveIterator.OfInt it = list.tailIterator(index.lows[bucket]);
+		long steps = 0;
+		for (; steps < rest && it.hasNext(); steps++)
+			it.nextInt();
+		walk(index, steps);
+		return it.hasNext() ? OptionalInt.of(it.nextInt()) : OptionalInt.empty();
+	}
+
+	/* Number of keys in [from, to) */
+	public int countInRange(int from, int to) {
+		if (from >= to)
+			return 0;
+		return Math.max(0, rank(to) - rank(from));
+	}
+
+	/* Number of Fenwick buckets right now */
+	public int buckets() {
+		return index.buckets();
+	}
+
+	/* Number of rebuilds so far */
+	public int rebuilds() {
+		return rebuilds;
+	}
+
+	/* Adds up a long walk, marks the Index stale once the walks since
+	 * the last rebuild have cost more than a rebuild would
+	 */
+	private void walk(Index index, long steps) {
+		if (steps < SHORT_WALK || steps <= 2 * index.mean || stale)
+			return;
+		walked.add(steps);
+		if (walked.sum() > Math.max(list.size(), maxBuckets))
+			stale = true;
+	}
+
+	/* Moves the bucket boundaries to the current key quantiles. Returns
+	 * false without waiting if another thread is rebuilding. Updates
+	 * call it once queries have marked the Index stale, a phase with
+	 * queries only has to call it itself.
+	 */
+	public boolean rebuild() {
+		if (!gate.close())
+			return false;
+		try {
+			index = countIndex();
+			walked.reset();
+			stale = false;
+			rebuilds++;
+			return true;
+		} finally {
+			gate.open();
+		}
+	}
+
+	private static void count(Index index, int key, int delta) {
+		for (int i = index.bucket(key) + 1; i <= index.buckets(); i += i & -i)
+			CELL.getAndAdd(index.cells, i, (long) delta);
+	}
+
+	/* Keys in the buckets below bucket */
+	private static long prefix(Index index, int bucket) {
+		long sum = 0;
+		for (int i = bucket; i > 0; i -= i & -i)
+			sum += (long) CELL.getVolatile(index.cells, i);
+		return sum;
+	}
+
+	private static int clamp(long count) {
+		return (int) Math.max(0, Math.min(count, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,480 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.LevelGenerator;
+
+/* IntSkipList whose nodes are reused instead of left to the GC, for
+ * add/remove heavy workloads. Same algorithm and node layout, without
+ * fingers, navigation or bulk loading.
+ *
+ * A node may be reused once no thread can reach it. It is linked at a
+ * level by exactly one CAS and leaves it by exactly one snip, so refs
+ * counts the levels it is linked at, plus one while its adder is still
+ * linking the tower. Whichever thread drops refs to zero retires the
+ * node to the EpochReclaimer, which hands it back to a per-thread free
+ * list of its height once every operation that might still hold it
+ * has finished.
+ *
+ * A node comes back to the thread that retired it, which need not be
+ * one that adds. A free list that reaches FREE_LIMIT passes BATCH
+ * nodes to a shared pool of its height, and a thread whose free list
+ * is empty takes a batch from the pool before it allocates.
+ *
+ * NOTE: A claimed node sitting behind a live node with the same key is
+ * not met by find(key), so the remover, and the adder if the node was
+ * claimed while it linked, unlink it with a walk that passes equal keys
+ * until it reaches the node itself.
+ */
+public final class RecyclingIntSkipList implements IntSet {
+	/* Number of levels, enough for 2^31 keys at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability */
+	private static final double P = 0.5;
+
+	/* Free nodes kept per thread and height, the rest go to the pool */
+	private static final int FREE_LIMIT = 1024;
+
+	/* Nodes moved to or from the shared pool at once */
+	private static final int BATCH = 64;
+
+	/* Batches kept in the pool per height, the rest go to the GC */
+	private static final int POOL_LIMIT = 256;
+
+	private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+	private static final VarHandle CLAIMED;
+	private static final VarHandle REFS;
+	private static final VarHandle HEAD_LEVEL;
+
+	static {
+		try {
+			CLAIMED = MethodHandles.lookup().findVarHandle(Node.class, "claimed", int.class);
+			REFS = MethodHandles.lookup().findVarHandle(Node.class, "refs", int.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(RecyclingIntSkipList.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Node head = new Node(Integer.MIN_VALUE, MAX_LEVEL);
+	private final Node tail = new Node(Integer.MAX_VALUE, MAX_LEVEL);
+
+	private final EpochReclaimer<Node> reclaimer = new EpochReclaimer<>();
+
+	/* Shared pool per height, batches of BATCH nodes chained by free */
+	private final Pool[] pools = new Pool[MAX_LEVEL + 1];
+
+	/* Per-thread preds/succs, free lists and reclaimer record */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(reclaimer, pools));
+
+	private final LevelGenerator levels;
+
+	/* See IntSkipList.headLevel */
+	private volatile int headLevel = 0;
+
+	/* Towers the top level needs before a level is opened above it */
+	private final int fanout;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+	private final LongAdder pooled = new LongAdder();
+
+	public RecyclingIntSkipList() {
+		this(P);
+	}
+
+	/* p is the probability a node is promoted to the next level */
+	public RecyclingIntSkipList(double p) {
+		levels = new LevelGenerator(MAX_LEVEL, p);
+		fanout = Math.max(2, (int) Math.round(1 / p));
+		for (int i = 0; i < head.next.length; i++) {
+			head.next[i] = tail;
+			pools[i] = new Pool();
+		}
+	}
+
+	private static final class Node {
+		int key;
+		final Node[] next;
+		final Node[] frozen;
+		private final int topLevel;
+
+		/* 0 while live, 1 once a remove has claimed the node */
+		volatile int claimed;
+
+		/* Levels linked, plus one until the adder is done */
+		volatile int refs;
+
+		/* Next node in a free list */
+		Node free;
+
+		public Node(int key, int height) {
+			this.key = key;
+			next = new Node[height + 1];
+			frozen = new Node[height + 1];
+			topLevel = height;
+		}
+	}
+
+	/* Free nodes of one height shared by all threads. Only whole
+	 * batches go in and out, so the queue sees one operation per BATCH
+	 * nodes.
+	 */
+	private static final class Pool {
+		final ConcurrentLinkedQueue<Node> batches = new ConcurrentLinkedQueue<>();
+
+		/* About batches.size(), which would walk the queue */
+		final LongAdder size = new LongAdder();
+	}
+
+	private static final class Search implements Consumer<Node> {
+		final Node[] preds = new Node[MAX_LEVEL + 1];
+		final Node[] succs = new Node[MAX_LEVEL + 1];
+
+		/* Free nodes by height */
+		final Node[] free = new Node[MAX_LEVEL + 1];
+		final int[] freeCount = new int[MAX_LEVEL + 1];
+
+		final Pool[] pools;
+		final EpochReclaimer.Record<Node> record;
+
+		Search(EpochReclaimer<Node> reclaimer, Pool[] pools) {
+			this.pools = pools;
+			record = reclaimer.register(this);
+		}
+
+		/* Takes back a node no thread can reach any more */
+		public void accept(Node node) {
+			int height = node.topLevel;
+			if (freeCount[height] == FREE_LIMIT)
+				spill(height);
+			node.free = free[height];
+			free[height] = node;
+			freeCount[height]++;
+		}
+
+		/* Moves the first BATCH free nodes of height to the pool */
+		private void spill(int height) {
+			Node first = free[height];
+			Node last = first;
+			for (int i = 1; i < BATCH; i++)
+				last = last.free;
+			free[height] = last.free;
+			freeCount[height] -= BATCH;
+			last.free = null;
+
+			Pool pool = pools[height];
+			if (pool.size.sum() < POOL_LIMIT) {
+				pool.size.increment();
+				pool.batches.offer(first);
+			}
+		}
+
+		/* Refills the empty free list of height from the pool */
+		boolean refill(int height) {
+			Node first = pools[height].batches.poll();
+			if (first == null)
+				return false;
+			pools[height].size.decrement();
+			free[height] = first;
+			freeCount[height] = BATCH;
+			return true;
+		}
+	}
+
+	/* Same as IntSkipList.randomLevel() */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	/* Whether level holds at least fanout unmarked towers */
+	private boolean crowded(int level) {
+		Node node = succ(head, level);
+		for (int n = 0; n < fanout; n++) {
+			while (node != tail && NEXT.getVolatile(node.next, level) == node)
+				node = node.frozen[level];
+			if (node == tail)
+				return false;
+			node = succ(node, level);
+		}
+		return true;
+	}
+
+	/* Same as IntSkipList.shrinkHead() */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			Node node = succ(head, current);
+			while (node != tail && NEXT.getVolatile(node.next, current) == node)
+				node = node.frozen[current];
+			if (node != tail || !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	private static Node succ(Node node, int level) {
+		Node succ = (Node) NEXT.getVolatile(node.next, level);
+		return succ == node ? node.frozen[level] : succ;
+	}
+
+	private Node allocate(Search search, int key, int height) {
+		if (search.free[height] == null && search.refill(height))
+			pooled.add(BATCH);
+		Node node = search.free[height];
+		if (node == null) {
+			allocated.increment();
+			return new Node(key, height);
+		}
+		search.free[height] = node.free;
+		search.freeCount[height]--;
+		node.free = null;
+		node.key = key;
+		node.claimed = 0;
+		reused.increment();
+		return node;
+	}
+
+	/* Drops one reference, the last one retires the node */
+	private void release(Search search, Node node) {
+		if ((int) REFS.getAndAdd(node, -1) == 1)
+			reclaimer.retire(search.record, node);
+	}
+
+	/* Marks the node at level. Only called by the thread that claimed it. */
+	private static void mark(Node node, int level) {
+		while (true) {
+			Node succ = (Node) NEXT.getVolatile(node.next, level);
+			if (succ == node)
+				return;
+			node.frozen[level] = succ;
+			if (NEXT.compareAndSet(node.next, level, succ, node))
+				return;
+		}
+	}
+
+	public boolean add(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			return add(key, search);
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	public boolean remove(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			return remove(key, search);
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	public boolean contains(int key) {
+		Search search = searches.get();
+		reclaimer.enter(search.record);
+		try {
+			Node curr = seek(key);
+			return curr != tail && curr.key == key && curr.claimed == 0;
+		} finally {
+			reclaimer.exit(search.record);
+		}
+	}
+
+	public int size() {
+		return (int) Math.max(0, Math.min(count.sum(), Integer.MAX_VALUE));
+	}
+
+	/* Nodes created so far */
+	public long allocated() {
+		return allocated.sum();
+	}
+
+	/* Nodes taken from a free list so far */
+	public long reused() {
+		return reused.sum();
+	}
+
+	/* Nodes moved from the shared pool to a free list so far */
+	public long pooled() {
+		return pooled.sum();
+	}
+
+	private boolean add(int key, Search search) {
+		int topLevel = -1;
+		int bottomLevel = 0;
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		Node newNode = null;
+		// NOTE: Searching one level above headLevel covers any level
+		// randomLevel() draws right after, see IntSkipList.add().
+		int filled = Math.min(headLevel + 1, MAX_LEVEL);
+		while (true) {
+			boolean found = find(key, null, search, Math.max(topLevel, filled));
+			if (found) {
+				// NOTE: Never published, goes straight back to the free list.
+				if (newNode != null)
+					search.accept(newNode);
+				return false;
+			}
+			if (topLevel < 0) {
+				topLevel = randomLevel();
+				if (topLevel > filled)
+					continue;
+			}
+
+			if (newNode == null)
+				newNode = allocate(search, key, topLevel);
+			for (int level = bottomLevel; level <= topLevel; level++) {
+				newNode.next[level] = succs[level];
+			}
+			newNode.refs = 2;
+
+			// LINEARIZED: The level-0 CAS publishes the new node.
+			Node pred = preds[bottomLevel];
+			Node succ = succs[bottomLevel];
+			if (!NEXT.compareAndSet(pred.next, bottomLevel, succ, newNode))
+				continue;
+			count.increment();
+
+			linkTower(newNode, topLevel, search);
+			if (newNode.claimed != 0)
+				find(key, newNode, search, topLevel);
+			release(search, newNode);
+			return true;
+		}
+	}
+
+	/* Links levels 1..topLevel, see IntSkipList.add() */
+	private void linkTower(Node newNode, int topLevel, Search search) {
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		for (int level = 1; level <= topLevel; level++) {
+			while (true) {
+				Node pred = preds[level];
+				Node succ = succs[level];
+
+				Node expected = (Node) NEXT.getVolatile(newNode.next, level);
+				if (newNode.claimed != 0 || expected == newNode)
+					return;
+				if (expected != succ && !NEXT.compareAndSet(newNode.next, level, expected, succ))
+					return;
+
+				// NOTE: The reference is taken before the link, a snip
+				// may follow the CAS before this thread runs again.
+				REFS.getAndAdd(newNode, 1);
+				if (NEXT.compareAndSet(pred.next, level, succ, newNode))
+					break;
+				REFS.getAndAdd(newNode, -1);
+				find(newNode.key, null, search, topLevel);
+			}
+		}
+	}
+
+	private boolean remove(int key, Search search) {
+		int bottomLevel = 0;
+		if (!find(key, null, search, 0))
+			return false;
+
+		// LINEARIZED: Claiming the node removes the key.
+		Node nodeToRemove = search.succs[bottomLevel];
+		if (!CLAIMED.compareAndSet(nodeToRemove, 0, 1))
+			return false;
+		count.decrement();
+
+		for (int level = nodeToRemove.topLevel; level >= bottomLevel; level--) {
+			mark(nodeToRemove, level);
+		}
+		find(key, nodeToRemove, search, nodeToRemove.topLevel);
+		if (nodeToRemove.topLevel > 0)
+			shrinkHead(nodeToRemove.topLevel);
+		return true;
+	}
+
+	/* IntSkipList.find(), releasing every node it snips. With a target,
+	 * it also walks past nodes of the same key until it meets target,
+	 * so a marked target is snipped on every level it is linked at.
+	 * Starts at fromLevel if the head is lower.
+	 */
+	private boolean find(int key, Node target, Search search, int fromLevel) {
+		int bottomLevel = 0;
+		Node[] preds = search.preds;
+		Node[] succs = search.succs;
+		Node pred = null;
+		Node curr = null;
+		Node succ = null;
+		retry: while (true) {
+			pred = head;
+			for (int level = Math.max(headLevel, fromLevel); level >= bottomLevel; level--) {
+				curr = (Node) NEXT.getVolatile(pred.next, level);
+				if (curr == pred)
+					continue retry;
+				while (true) {
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+					while (succ == curr) {
+						succ = curr.frozen[level];
+						if (!NEXT.compareAndSet(pred.next, level, curr, succ))
+							continue retry;
+						release(search, curr);
+						curr = succ;
+						succ = (Node) NEXT.getVolatile(curr.next, level);
+					}
+					if (curr != tail && (curr.key < key || (curr.key == key && target != null && curr != target))) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return curr != tail && curr.key == key && curr.claimed == 0;
+		}
+	}
+
+	/* Same as IntSkipList.seek() */
+	private Node seek(int key) {
+		int bottomLevel = 0;
+		Node pred = head;
+		Node curr = null;
+		Node succ = null;
+		for (int level = headLevel; level >= bottomLevel; level--) {
+			curr = (Node) NEXT.getVolatile(pred.next, level);
+			if (curr == pred)
+				curr = pred.frozen[level];
+			while (true) {
+				succ = (Node) NEXT.getVolatile(curr.next, level);
+				while (succ == curr) {
+					curr = curr.frozen[level];
+					succ = (Node) NEXT.getVolatile(curr.next, level);
+				}
+				if (curr != tail && curr.key < key) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+		}
+		return curr;
+	}
+}
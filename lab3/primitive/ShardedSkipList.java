@@ -0,0 +1,387 @@
+package primitive;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/* Int set split by key range into independent IntSkipList shards, so
+ * threads working on different parts of the key space never share a
+ * head tower.
+ *
+ * [min, max] is cut into 2^k equally wide buckets, keys outside it
+ * fall into the first or last one. route[] maps every bucket to a
+ * shard and never decreases, so shard i only holds keys below those
+ * of shard i + 1 and routing a key is a shift and a table lookup.
+ *
+ * When one shard grows to more than IMBALANCE times its share, the
+ * buckets are redistributed by key count and the keys of moved buckets
+ * migrate. Operations pass an OperationGate: the rebalancing thread
+ * closes it, which waits for the operations in progress, moves the
+ * keys and installs the new route. Operations arriving meanwhile wait
+ * for the gate to open. Outside a rebalance, every operation is as
+ * lock-free as the shard it goes to.
+ *
+ * Scans and iterators hold their reader only while they copy CHUNK
+ * keys, and call back with none held. A rebalance thus waits for at
+ * most one chunk per scan, and a callback may update the set, even
+ * when that starts a rebalance. rebalance() called from inside an
+ * operation returns false rather than wait for itself.
+ */
+public final class ShardedSkipList implements IntSet {
+	/* Default number of buckets, at most one per key */
+	private static final int BUCKETS = 1 << 16;
+
+	/* Largest shard size, relative to the mean, before a rebalance */
+	private static final int IMBALANCE = 2;
+
+	/* No rebalancing below this many keys per shard */
+	private static final int MIN_KEYS = 1024;
+
+	/* About one add in CHECK_EVERY looks at the shard sizes */
+	private static final int CHECK_EVERY = 1024;
+
+	/* Keys moved per batch, and returned per iterator refill */
+	private static final int CHUNK = 256;
+
+	private final int min;
+	private final int shift;
+	private final int buckets;
+	private final IntSkipList[] shards;
+
+	/* Bucket to shard, replaced as a whole by rebalance() */
+	private volatile int[] route;
+
+	private final OperationGate gate = new OperationGate();
+
+	/* Largest shard right after the last rebalance */
+	private volatile long settled;
+	private volatile int rebalances;
+
+	/* Splits [min, max] evenly between shards */
+	public ShardedSkipList(int min, int max, int shards) {
+		this(min, max, newShards(shards), null);
+	}
+
+	private ShardedSkipList(int min, int max, IntSkipList[] shards, int[] route) {
+		if (min > max)
+			throw new IllegalArgumentException("min > max: " + min + " > " + max);
+		long span = (long) max - min + 1;
+		int shift = 0;
+		while ((span - 1) >>> shift >= BUCKETS)
+			shift++;
+
+		this.min = min;
+		this.shift = shift;
+		this.buckets = (int) ((span - 1) >>> shift) + 1;
+		this.shards = shards;
+		this.route = route != null ? route : evenRoute(buckets, shards.length);
+	}
+
+	/* Builds a sharded set holding keys, in any order. Shard boundaries
+	 * are placed at the quantiles of keys, and every shard is bulk
+	 * loaded with IntSkipList.fromSorted().
+	 */
+	public static ShardedSkipList fromUnsorted(int min, int max, int shards, int[] keys) {
+		int[] sorted = keys.clone();
+		Arrays.parallelSort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1])
+				sorted[n++] = sorted[i];
+		}
+
+		ShardedSkipList set = new ShardedSkipList(min, max, shards);
+		long[] counts = new long[set.buckets];
+		for (int i = 0; i < n; i++)
+			counts[set.bucket(sorted[i])]++;
+		int[] route = balance(counts, shards);
+
+		int from = 0;
+		for (int s = 0; s < shards; s++) {
+			int to = from;
+			while (to < n && route[set.bucket(sorted[to])] == s)
+				to++;
+			set.shards[s] = IntSkipList.fromSorted(Arrays.copyOfRange(sorted, from, to));
+			from = to;
+		}
+		set.route = route;
+		set.settled = maxSize(set.shards);
+		return set;
+	}
+
+	private static IntSkipList[] newShards(int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("need at least one shard: " + count);
+		IntSkipList[] shards = new IntSkipList[count];
+		for (int i = 0; i < count; i++)
+			shards[i] = new IntSkipList();
+		return shards;
+	}
+
+	private static int[] evenRoute(int buckets, int shards) {
+		int[] route = new int[buckets];
+		for (int b = 0; b < buckets; b++)
+			route[b] = (int) ((long) b * shards / buckets);
+		return route;
+	}
+
+	/* Cuts the buckets into runs holding about the same key count */
+	private static int[] balance(long[] counts, int shards) {
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return evenRoute(counts.length, shards);
+
+		int[] route = new int[counts.length];
+		long seen = 0;
+		int shard = 0;
+		for (int b = 0; b < counts.length; b++) {
+			route[b] = shard;
+			seen += counts[b];
+			while (shard < shards - 1 && seen >= (shard + 1) * total / shards)
+				shard++;
+		}
+		return route;
+	}
+
+	private int bucket(int key) {
+		if (key <= min)
+			return 0;
+		long offset = ((long) key - min) >>> shift;
+		return offset < buckets ? (int) offset : buckets - 1;
+	}
+
+	private IntSkipList shard(int key) {
+		return shards[route[bucket(key)]];
+	}
+
+	public boolean add(int key) {
+		OperationGate.Reader r = gate.enter();
+		boolean added;
+		try {
+			added = shard(key).add(key);
+		} finally {
+			gate.exit(r);
+		}
+		if (added && ThreadLocalRandom.current().nextInt(CHECK_EVERY) == 0)
+			maybeRebalance();
+		return added;
+	}
+
+	public boolean remove(int key) {
+		OperationGate.Reader r = gate.enter();
+		try {
+			return shard(key).remove(key);
+		} finally {
+			gate.exit(r);
+		}
+	}
+
+	public boolean contains(int key) {
+		OperationGate.Reader r = gate.enter();
+		try {
+			return shard(key).contains(key);
+		} finally {
+			gate.exit(r);
+		}
+	}
+
+	public int size() {
+		long sum = 0;
+		for (IntSkipList shard : shards)
+			sum += shard.size();
+		return (int) Math.min(sum, Integer.MAX_VALUE);
+	}
+
+	public boolean isEmpty() {
+		for (IntSkipList shard : shards) {
+			if (!shard.isEmpty())
+				return false;
+		}
+		return true;
+	}
+
+	/* Current size of every shard, in key order */
+	public int[] shardSizes() {
+		int[] sizes = new int[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			sizes[i] = shards[i].size();
+		return sizes;
+	}
+
+	/* Number of rebalances so far */
+	public int rebalances() {
+		return rebalances;
+	}
+
+	/* Calls action on every key in [from, to) in ascending order, with
+	 * the same guarantees as iterator(). Keys are copied CHUNK at a
+	 * time, and action runs outside any operation, so it may update
+	 * the set.
+	 */
+	public void forEachInRange(int from, int to, IntConsumer action) {
+		if (from >= to)
+			return;
+		PrimitiveIterator.OfInt it = new Iter(from, to);
+		while (it.hasNext())
+			action.accept(it.nextInt());
+	}
+
+	public void forEach(IntConsumer action) {
+		PrimitiveIterator.OfInt it = iterator();
+		while (it.hasNext())
+			action.accept(it.nextInt());
+	}
+
+	/* Weakly consistent ascending iterator, see Iter */
+	public PrimitiveIterator.OfInt iterator() {
+		return new Iter(Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1);
+	}
+
+	private static long maxSize(IntSkipList[] shards) {
+		long max = 0;
+		for (IntSkipList shard : shards)
+			max = Math.max(max, shard.size());
+		return max;
+	}
+
+	private void maybeRebalance() {
+		long total = 0;
+		long max = 0;
+		for (IntSkipList shard : shards) {
+			int size = shard.size();
+			total += size;
+			max = Math.max(max, size);
+		}
+		long mean = total / shards.length;
+		if (mean >= MIN_KEYS && max > IMBALANCE * Math.max(mean, settled))
+			rebalance();
+	}
+
+	/* Moves shard boundaries to the current key quantiles. Returns
+	 * false without waiting if another thread is rebalancing, or if
+	 * the calling thread is inside an operation on this set.
+	 */
+	public boolean rebalance() {
+		if (!gate.close())
+			return false;
+		try {
+			long[] counts = new long[buckets];
+			for (IntSkipList shard : shards)
+				shard.forEach(key -> counts[bucket(key)]++);
+			int[] next = balance(counts, shards.length);
+			for (int s = 0; s < shards.length; s++)
+				migrate(s, next);
+
+			route = next;
+			settled = maxSize(shards);
+			rebalances++;
+			return true;
+		} finally {
+			gate.open();
+		}
+	}
+
+	/* Moves the keys of shard s whose bucket next routes elsewhere.
+	 * Keys are visited in order and next never decreases, so they
+	 * leave in sorted runs, one per destination.
+	 */
+	private void migrate(int s, int[] next) {
+		int[] run = new int[CHUNK];
+		int length = 0;
+		int dest = -1;
+		PrimitiveIterator.OfInt it = shards[s].iterator();
+		while (it.hasNext()) {
+			int key = it.nextInt();
+			int to = next[bucket(key)];
+			if (to == s)
+				continue;
+			if (to != dest || length == run.length) {
+				move(s, dest, run, length);
+				dest = to;
+				length = 0;
+			}
+			run[length++] = key;
+		}
+		move(s, dest, run, length);
+	}
+
+	private void move(int from, int to, int[] run, int length) {
+		if (length == 0)
+			return;
+		int[] keys = length == run.length ? run : Arrays.copyOf(run, length);
+		shards[to].addAll(keys);
+		shards[from].removeAll(keys);
+	}
+
+	/* Refills a small buffer of keys in [cursor, end) under
+	 * enter()/exit(), walking the shards in order, so keys present for
+	 * the whole iteration are returned even across a rebalance. Keys
+	 * are returned strictly ascending, and between refills no operation
+	 * is held open.
+	 */
+	private final class Iter implements PrimitiveIterator.OfInt {
+		private final int[] buffer = new int[CHUNK];
+		private int length, index;
+		private long cursor;
+		private final long end;
+		private int last;
+		private boolean canRemove;
+
+		Iter(long from, long end) {
+			this.cursor = from;
+			this.end = end;
+		}
+
+		private void fill() {
+			length = 0;
+			index = 0;
+			if (cursor >= end)
+				return;
+			boolean done = false;
+			OperationGate.Reader r = gate.enter();
+			try {
+				int[] route = ShardedSkipList.this.route;
+				scan:
+				for (int s = route[bucket((int) cursor)]; s < shards.length && length < CHUNK; s++) {
+					PrimitiveIterator.OfInt it = shards[s].tailIterator((int) cursor);
+					while (length < CHUNK && it.hasNext()) {
+						int key = it.nextInt();
+						if (key >= end) {
+							done = true;
+							break scan;
+						}
+						buffer[length++] = key;
+					}
+				}
+			} finally {
+				gate.exit(r);
+			}
+			cursor = done || length < CHUNK ? end : (long) buffer[length - 1] + 1;
+		}
+
+		public boolean hasNext() {
+			if (index == length)
+				fill();
+			return index < length;
+		}
+
+		public int nextInt() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = buffer[index++];
+			canRemove = true;
+			return last;
+		}
+
+		public void remove() {
+			if (!canRemove)
+				throw new IllegalStateException();
+			canRemove = false;
+			ShardedSkipList.this.remove(last);
+		}
+	}
+}
@@ -0,0 +1,478 @@
+package primitive;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import common.LevelGenerator;
+
+/* Unrolled lock-free skip list: level 0 is a list of chunks holding up
+ * to MAX_KEYS sorted keys each, and the index levels link chunks
+ * instead of single keys. A scan or lookup reads a few dense int
+ * arrays instead of one node per key.
+ *
+ * A chunk owns the keys from its low bound up to the low bound of its
+ * successor. Its keys and its level-0 successor live together in an
+ * immutable Contents, so every update is one CAS that swaps in a new
+ * copy:
+ * - add and remove replace the chunk's keys,
+ * - a split shrinks the chunk and links a new one behind it at once,
+ * - a chunk that drops below MIN_KEYS is frozen, after which its
+ *   contents never change, and its predecessor absorbs it by CASing
+ *   in the union of both key arrays and the frozen successor.
+ * Whoever meets a frozen chunk completes the merge, and merges always
+ * go into the predecessor, so helping never cycles and the head chunk,
+ * which is never frozen, bounds every chain of help.
+ *
+ * The index levels are IntSkipList towers keyed by the chunk low
+ * bound. The thread that froze a chunk marks its tower, as the
+ * claiming remover does in IntSkipList. Searches that still land on a
+ * frozen chunk step back to an earlier one.
+ */
+public final class UnrolledIntSkipList implements IntSet {
+	/* Number of levels, enough for 2^31 chunks at p = 1/2 */
+	private static final int MAX_LEVEL = 31;
+
+	/* Default promotion probability of a chunk */
+	private static final double P = 0.5;
+
+	/* A chunk that would grow beyond MAX_KEYS is split in two, one that
+	 * shrinks below MIN_KEYS is merged into its predecessor
+	 */
+	private static final int MAX_KEYS = 32;
+	private static final int MIN_KEYS = 8;
+
+	private static final int[] NO_KEYS = new int[0];
+
+	private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Chunk[].class);
+	private static final VarHandle CONTENTS;
+	private static final VarHandle HEAD_LEVEL;
+
+	static {
+		try {
+			CONTENTS = MethodHandles.lookup().findVarHandle(Chunk.class, "contents", Contents.class);
+			HEAD_LEVEL = MethodHandles.lookup().findVarHandle(UnrolledIntSkipList.class, "headLevel", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/* head is the first chunk, tail only ends the index levels */
+	private final Chunk head = new Chunk(Integer.MIN_VALUE, MAX_LEVEL);
+	private final Chunk tail = new Chunk(Integer.MAX_VALUE, MAX_LEVEL);
+
+	/* Per-thread preds/succs of the index levels */
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+	private final LevelGenerator levels;
+
+	/* Highest index level in use, 0 for none, see IntSkipList.headLevel */
+	private volatile int headLevel = 0;
+
+	/* Chunks the top level needs before a level is opened above it */
+	private final int fanout;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder chunks = new LongAdder();
+
+	public UnrolledIntSkipList() {
+		this(P);
+	}
+
+	/* p is the probability a chunk is promoted to the next level */
+	public UnrolledIntSkipList(double p) {
+		levels = new LevelGenerator(MAX_LEVEL, p);
+		fanout = Math.max(2, (int) Math.round(1 / p));
+		head.contents = new Contents(NO_KEYS, null, false);
+		for (int i = 1; i < head.next.length; i++) {
+			head.next[i] = tail;
+		}
+		chunks.increment();
+	}
+
+	private static final class Contents {
+		/* Sorted, never written after construction */
+		final int[] keys;
+
+		/* Level-0 successor, null for the last chunk */
+		final Chunk next;
+
+		/* Set once the chunk is waiting to be absorbed */
+		final boolean frozen;
+
+		Contents(int[] keys, Chunk next, boolean frozen) {
+			this.keys = keys;
+			this.next = next;
+			this.frozen = frozen;
+		}
+	}
+
+	private static final class Chunk {
+		final int low;
+		volatile Contents contents;
+
+		/* Index levels 1..topLevel, slot 0 is unused */
+		final Chunk[] next;
+		final Chunk[] frozen;
+		private final int topLevel;
+
+		Chunk(int low, int height) {
+			this.low = low;
+			next = new Chunk[height + 1];
+			frozen = new Chunk[height + 1];
+			topLevel = height;
+		}
+	}
+
+	private static final class Search {
+		final Chunk[] preds = new Chunk[MAX_LEVEL + 1];
+		final Chunk[] succs = new Chunk[MAX_LEVEL + 1];
+
+		/* Contents of the chunk locate() returned, as it read them */
+		Contents contents;
+
+		/* Height drawn for the next split, -1 once a split used it */
+		int level = -1;
+	}
+
+	/* Same as IntSkipList.randomLevel(), called once per split */
+	private int randomLevel() {
+		int current = headLevel;
+		int level = levels.next(current + 1);
+		if (level > current && !crowded(current))
+			return current;
+		while (level > current) {
+			if (HEAD_LEVEL.compareAndSet(this, current, level))
+				break;
+			current = headLevel;
+		}
+		return level;
+	}
+
+	/* Whether level holds at least fanout chunks besides head, level 0
+	 * being the chain of contents
+	 */
+	private boolean crowded(int level) {
+		Chunk chunk = head;
+		for (int n = 0; n < fanout; n++) {
+			chunk = level == 0 ? chunk.contents.next : unmarked(succ(chunk, level), level);
+			if (chunk == null || chunk == tail)
+				return false;
+		}
+		return true;
+	}
+
+	/* Same as IntSkipList.shrinkHead(), for the index levels */
+	private void shrinkHead(int level) {
+		int current = headLevel;
+		while (current > 0 && current <= level) {
+			if (unmarked(succ(head, current), current) != tail
+					|| !HEAD_LEVEL.compareAndSet(this, current, current - 1))
+				return;
+			current--;
+		}
+	}
+
+	/* Successor of chunk at level, whether or not the level is marked */
+	private static Chunk succ(Chunk chunk, int level) {
+		Chunk succ = (Chunk) NEXT.getVolatile(chunk.next, level);
+		return succ == chunk ? chunk.frozen[level] : succ;
+	}
+
+	/* First chunk from chunk on that is not marked at level */
+	private Chunk unmarked(Chunk chunk, int level) {
+		while (chunk != tail && NEXT.getVolatile(chunk.next, level) == chunk)
+			chunk = chunk.frozen[level];
+		return chunk;
+	}
+
+	/* Marks the chunk at level. Only called by the thread that froze it. */
+	private static void mark(Chunk chunk, int level) {
+		while (true) {
+			Chunk succ = (Chunk) NEXT.getVolatile(chunk.next, level);
+			if (succ == chunk)
+				return;
+			chunk.frozen[level] = succ;
+			if (NEXT.compareAndSet(chunk.next, level, succ, chunk))
+				return;
+		}
+	}
+
+	public boolean add(int key) {
+		Search search = searches.get();
+		Chunk chunk = locate(head, key, search);
+		while (true) {
+			Contents contents = search.contents;
+			int[] keys = contents.keys;
+			int index = Arrays.binarySearch(keys, key);
+			if (index >= 0)
+				return false;
+
+			index = -index - 1;
+			int[] added = new int[keys.length + 1];
+			System.arraycopy(keys, 0, added, 0, index);
+			added[index] = key;
+			System.arraycopy(keys, index, added, index + 1, keys.length - index);
+
+			// LINEARIZED: Swapping in the new contents adds the key.
+			if (install(chunk, contents, added, contents.next, search)) {
+				count.increment();
+				return true;
+			}
+			chunk = locate(chunk, key, search);
+		}
+	}
+
+	public boolean remove(int key) {
+		Search search = searches.get();
+		Chunk chunk = locate(head, key, search);
+		while (true) {
+			Contents contents = search.contents;
+			int[] keys = contents.keys;
+			int index = Arrays.binarySearch(keys, key);
+			if (index < 0)
+				return false;
+
+			int[] removed = new int[keys.length - 1];
+			System.arraycopy(keys, 0, removed, 0, index);
+			System.arraycopy(keys, index + 1, removed, index, removed.length - index);
+
+			// LINEARIZED: Swapping in the new contents removes the key.
+			if (CONTENTS.compareAndSet(chunk, contents, new Contents(removed, contents.next, false))) {
+				count.decrement();
+				if (removed.length < MIN_KEYS && chunk != head)
+					merge(chunk, search);
+				return true;
+			}
+			chunk = locate(chunk, key, search);
+		}
+	}
+
+	public boolean contains(int key) {
+		Search search = searches.get();
+		locate(head, key, search);
+		return Arrays.binarySearch(search.contents.keys, key) >= 0;
+	}
+
+	public int size() {
+		return (int) Math.max(0, Math.min(count.sum(), Integer.MAX_VALUE));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/* Number of live chunks, approximate while updates run */
+	public long chunks() {
+		return chunks.sum();
+	}
+
+	/* Calls action on every key in [from, to) in ascending order. Each
+	 * chunk is read as one snapshot, the scan as a whole is weakly
+	 * consistent like IntSkipList.forEachInRange().
+	 */
+	public void forEachInRange(int from, int to, IntConsumer action) {
+		if (from < to)
+			scan(from, to, action);
+	}
+
+	public void forEach(IntConsumer action) {
+		scan(Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1, action);
+	}
+
+	private void scan(int from, long to, IntConsumer action) {
+		Search search = searches.get();
+		locate(head, from, search);
+		Contents contents = search.contents;
+		int i = lowerBound(contents.keys, from);
+		while (true) {
+			int[] keys = contents.keys;
+			for (; i < keys.length; i++) {
+				if (keys[i] >= to)
+					return;
+				action.accept(keys[i]);
+			}
+			// NOTE: A frozen successor still holds its keys until it is
+			// absorbed, and they all lie above the keys just returned.
+			if (contents.next == null)
+				return;
+			contents = contents.next.contents;
+			i = 0;
+		}
+	}
+
+	private static int lowerBound(int[] keys, int key) {
+		int index = Arrays.binarySearch(keys, key);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/* Swaps contents of chunk for keys and next, splitting the chunk in
+	 * the same CAS when keys are too many for one. The thread whose CAS
+	 * succeeds links the new chunk's tower.
+	 */
+	private boolean install(Chunk chunk, Contents contents, int[] keys, Chunk next, Search search) {
+		if (keys.length <= MAX_KEYS)
+			return CONTENTS.compareAndSet(chunk, contents, new Contents(keys, next, false));
+
+		// NOTE: A lost CAS keeps the height for the retry, so that only
+		// splits that happen draw heights and raise headLevel.
+		if (search.level < 0)
+			search.level = randomLevel();
+		int half = keys.length >>> 1;
+		Chunk right = new Chunk(keys[half], search.level);
+		right.contents = new Contents(Arrays.copyOfRange(keys, half, keys.length), next, false);
+		for (int level = 1; level <= right.topLevel; level++) {
+			right.next[level] = tail;
+		}
+		if (!CONTENTS.compareAndSet(chunk, contents, new Contents(Arrays.copyOf(keys, half), right, false)))
+			return false;
+		search.level = -1;
+		chunks.increment();
+		linkTower(right, search);
+		return true;
+	}
+
+	/* Links index levels 1..topLevel of a chunk already linked at level
+	 * 0, see IntSkipList.add()
+	 */
+	private void linkTower(Chunk chunk, Search search) {
+		Chunk[] preds = search.preds;
+		Chunk[] succs = search.succs;
+		if (chunk.topLevel > 0)
+			find(chunk.low, preds, succs, chunk.topLevel);
+		for (int level = 1; level <= chunk.topLevel; level++) {
+			while (true) {
+				Chunk pred = preds[level];
+				Chunk succ = succs[level];
+
+				// NOTE: Stop once the chunk is frozen, its freezer is
+				// marking the tower.
+				Chunk expected = (Chunk) NEXT.getVolatile(chunk.next, level);
+				if (chunk.contents.frozen || expected == chunk)
+					return;
+				if (expected != succ && !NEXT.compareAndSet(chunk.next, level, expected, succ))
+					return;
+
+				if (NEXT.compareAndSet(pred.next, level, succ, chunk))
+					break;
+				find(chunk.low, preds, succs, chunk.topLevel);
+			}
+		}
+	}
+
+	/* Freezes a chunk that has become too small, marks its tower and
+	 * makes sure it is absorbed. Gives up if the chunk grew again or
+	 * someone else froze it.
+	 */
+	private void merge(Chunk chunk, Search search) {
+		while (true) {
+			Contents contents = chunk.contents;
+			if (contents.frozen || contents.keys.length >= MIN_KEYS)
+				return;
+			if (CONTENTS.compareAndSet(chunk, contents, new Contents(contents.keys, contents.next, true)))
+				break;
+		}
+		chunks.decrement();
+		for (int level = chunk.topLevel; level >= 1; level--) {
+			mark(chunk, level);
+		}
+		// NOTE: The walk to chunk.low absorbs the chunk on its way, and
+		// the index search past it snips the marked tower.
+		locate(head, chunk.low, search);
+		find((long) chunk.low + 1, search.preds, search.succs, chunk.topLevel);
+		if (chunk.topLevel > 0)
+			shrinkHead(chunk.topLevel);
+	}
+
+	/* Predecessor absorbs its frozen successor, returns whether this call did it */
+	private static boolean absorb(Chunk pred, Contents contents, Contents frozen) {
+		int[] left = contents.keys;
+		int[] right = frozen.keys;
+		int[] keys = Arrays.copyOf(left, left.length + right.length);
+		System.arraycopy(right, 0, keys, left.length, right.length);
+		return CONTENTS.compareAndSet(pred, contents, new Contents(keys, frozen.next, false));
+	}
+
+	/* Returns the live chunk that owns key and leaves the contents it
+	 * read in search.contents. Starts at from, or from the index if
+	 * from is head or has been frozen, and absorbs frozen chunks on
+	 * the way.
+	 */
+	private Chunk locate(Chunk from, int key, Search search) {
+		Chunk curr = from == head ? start(key, search) : from;
+		while (true) {
+			Contents contents = curr.contents;
+			if (contents.frozen) {
+				curr = start(key, search);
+				continue;
+			}
+			Chunk next = contents.next;
+			if (next == null || next.low > key) {
+				search.contents = contents;
+				return curr;
+			}
+			Contents successor = next.contents;
+			if (successor.frozen) {
+				absorb(curr, contents, successor);
+				continue;
+			}
+			curr = next;
+		}
+	}
+
+	/* Last unfrozen chunk of the index whose low bound is <= key. A
+	 * frozen one may still be linked, then the search is redone below
+	 * its bound; head is never frozen, so this ends.
+	 */
+	private Chunk start(int key, Search search) {
+		long bound = (long) key + 1;
+		while (true) {
+			Chunk chunk = find(bound, search.preds, search.succs, 0);
+			if (!chunk.contents.frozen)
+				return chunk;
+			bound = chunk.low;
+		}
+	}
+
+	/* IntSkipList.find() over the index levels: fills preds/succs with
+	 * the chunks around the first one whose low bound is >= bound,
+	 * snipping marked chunks on the way. Returns the level-1 pred, or
+	 * head when there are no index levels yet. Starts at fromLevel if
+	 * the head is lower.
+	 */
+	private Chunk find(long bound, Chunk[] preds, Chunk[] succs, int fromLevel) {
+		int bottomLevel = 1;
+		Chunk pred = null;
+		Chunk curr = null;
+		Chunk succ = null;
+		retry: while (true) {
+			pred = head;
+			for (int level = Math.max(headLevel, fromLevel); level >= bottomLevel; level--) {
+				curr = (Chunk) NEXT.getVolatile(pred.next, level);
+				if (curr == pred)
+					continue retry;
+				while (true) {
+					succ = (Chunk) NEXT.getVolatile(curr.next, level);
+					while (succ == curr) {
+						succ = curr.frozen[level];
+						if (!NEXT.compareAndSet(pred.next, level, curr, succ))
+							continue retry;
+						curr = succ;
+						succ = (Chunk) NEXT.getVolatile(curr.next, level);
+					}
+					if (curr != tail && curr.low < bound) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return pred;
+		}
+	}
+}